@@ -0,0 +1,28 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Accepts the usual JMH command line
+ * and always adds the GC profiler, so every result comes with its allocation
+ * rate ({@code gc.alloc.rate.norm} is bytes allocated per operation).
+ *
+ * <pre>
+ *   mvn -f bench/pom.xml package
+ *   java -jar bench/target/benchmarks.jar                      # everything
+ *   java -jar bench/target/benchmarks.jar QueryBenchmark -p lines=1000000
+ * </pre>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,41 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A temporary directory of generated logs, removed again by {@link #delete}.
+ */
+final class Dataset {
+    private final Path dir;
+
+    private Dataset(Path dir) {
+        this.dir = dir;
+    }
+
+    static Dataset generate(LogGenerator generator) {
+        try {
+            Path dir = Files.createTempDirectory("logparser-bench");
+            generator.write(dir);
+            return new Dataset(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    void delete() {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
\ No newline at end of file
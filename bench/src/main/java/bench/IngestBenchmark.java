@@ -0,0 +1,63 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a generated log directory into a new {@code LogParser}.
+ * Divide {@code lines} by the score for the ingestion throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class IngestBenchmark {
+    @Param({"100000", "1000000"})
+    private long lines;
+
+    @Param({"1", "4"})
+    private int parallelism;
+
+    @Param({"true", "false"})
+    private boolean memoryMapped;
+
+    @Param({"0.001"})
+    private double malformedRate;
+
+    private Dataset dataset;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        dataset = Dataset.generate(new LogGenerator()
+                .setLines(lines)
+                .setFiles(4)
+                .setUsers(10_000)
+                .setIps(50_000)
+                .setMalformedRate(malformedRate));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public Object readLogs() {
+        return Parser.open(dataset.dir(), parallelism, memoryMapped);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,236 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic, tab separated log files in the format read by
+ * {@code LogParser}. The output only depends on the settings and the seed,
+ * so every benchmark run sees byte for byte the same data.
+ *
+ * <p>Users and IPs are drawn with a skew towards low numbers, so a few of
+ * them are very active and most are rare, as in real logs. Timestamps grow
+ * with the line number, with some jitter, over {@link #setSpanDays} days.
+ */
+public class LogGenerator {
+    static final long START = 1325376000000L;
+    private static final String[] EVENTS = {"LOGIN", "DOWNLOAD_PLUGIN", "WRITE_MESSAGE", "SOLVE_TASK", "DONE_TASK"};
+    private static final String[] STATUSES = {"OK", "FAILED", "ERROR"};
+
+    private long seed = 42;
+    private long lines = 100_000;
+    private int files = 4;
+    private int users = 1_000;
+    private int ips = 5_000;
+    private int tasks = 50;
+    private int spanDays = 730;
+    private double malformedRate = 0.001;
+    private double[] eventWeights = {30, 5, 35, 20, 10};
+    private double[] statusWeights = {90, 7, 3};
+
+    public LogGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public LogGenerator setLines(long lines) {
+        if (lines < 0) {
+            throw new IllegalArgumentException("lines must not be negative: " + lines);
+        }
+        this.lines = lines;
+        return this;
+    }
+
+    public LogGenerator setFiles(int files) {
+        if (files < 1) {
+            throw new IllegalArgumentException("files must be positive: " + files);
+        }
+        this.files = files;
+        return this;
+    }
+
+    /**
+     * Number of distinct user names.
+     */
+    public LogGenerator setUsers(int users) {
+        if (users < 1) {
+            throw new IllegalArgumentException("users must be positive: " + users);
+        }
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * Number of distinct IP addresses. Every hundredth one is not a dotted
+     * IPv4 address.
+     */
+    public LogGenerator setIps(int ips) {
+        if (ips < 1) {
+            throw new IllegalArgumentException("ips must be positive: " + ips);
+        }
+        this.ips = ips;
+        return this;
+    }
+
+    public LogGenerator setTasks(int tasks) {
+        if (tasks < 1) {
+            throw new IllegalArgumentException("tasks must be positive: " + tasks);
+        }
+        this.tasks = tasks;
+        return this;
+    }
+
+    public LogGenerator setSpanDays(int spanDays) {
+        if (spanDays < 1) {
+            throw new IllegalArgumentException("spanDays must be positive: " + spanDays);
+        }
+        this.spanDays = spanDays;
+        return this;
+    }
+
+    /**
+     * Fraction of lines that are broken: a missing field, an unparsable date
+     * or an unknown event.
+     */
+    public LogGenerator setMalformedRate(double malformedRate) {
+        if (malformedRate < 0 || malformedRate > 1) {
+            throw new IllegalArgumentException("malformedRate must be within [0, 1]: " + malformedRate);
+        }
+        this.malformedRate = malformedRate;
+        return this;
+    }
+
+    /**
+     * Relative frequency of LOGIN, DOWNLOAD_PLUGIN, WRITE_MESSAGE,
+     * SOLVE_TASK and DONE_TASK, in this order.
+     */
+    public LogGenerator setEventWeights(double... eventWeights) {
+        if (eventWeights.length != EVENTS.length) {
+            throw new IllegalArgumentException("expected " + EVENTS.length + " event weights");
+        }
+        this.eventWeights = eventWeights.clone();
+        return this;
+    }
+
+    /**
+     * Writes {@code log-000.log}, {@code log-001.log}, ... into {@code dir},
+     * which is created if needed.
+     */
+    public void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        SplittableRandom random = new SplittableRandom(seed);
+        long step = (long) spanDays * 86_400_000L / Math.max(lines, 1);
+        long line = 0;
+        for (int file = 0; file < files; file++) {
+            long end = lines * (file + 1) / files;
+            Path path = dir.resolve(String.format("log-%03d.log", file));
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                StringBuilder builder = new StringBuilder(128);
+                for (; line < end; line++) {
+                    builder.setLength(0);
+                    long time = START + line * step + random.nextLong(Math.max(step, 1) * 8);
+                    appendLine(builder, random, time);
+                    writer.append(builder).append('\n');
+                }
+            }
+        }
+    }
+
+    private void appendLine(StringBuilder builder, SplittableRandom random, long time) {
+        int malformed = random.nextDouble() < malformedRate ? 1 + random.nextInt(3) : 0;
+        builder.append(ip(skewed(random, ips))).append('\t');
+        builder.append("user").append(skewed(random, users)).append('\t');
+        if (malformed == 1) {
+            builder.append("31.02.2012 25:61:00");
+        } else {
+            appendDate(builder, time);
+        }
+        builder.append('\t');
+        int event = pick(random, eventWeights);
+        if (malformed == 2) {
+            builder.append("UPLOAD_PLUGIN");
+        } else {
+            builder.append(EVENTS[event]);
+            if (event >= 3) {
+                builder.append(' ').append(1 + random.nextInt(tasks));
+            }
+        }
+        if (malformed != 3) {
+            builder.append('\t').append(STATUSES[pick(random, statusWeights)]);
+        }
+    }
+
+    /**
+     * Returns the address for IP number {@code n}; every hundredth one is a
+     * host name instead of an IPv4 address.
+     */
+    static String ip(int n) {
+        if (n % 100 == 99) {
+            return "host-" + n + ".example.com";
+        }
+        int value = 0x0a000000 | (int) (n * 2654435761L & 0xffffff);
+        return (value >>> 24) + "." + (value >>> 16 & 0xff) + "." + (value >>> 8 & 0xff) + "." + (value & 0xff);
+    }
+
+    /**
+     * Draws from {@code [0, n)} so that the probability falls with the
+     * value, roughly like real user activity.
+     */
+    private static int skewed(SplittableRandom random, int n) {
+        double r = random.nextDouble();
+        return (int) (n * r * r * r);
+    }
+
+    private static int pick(SplittableRandom random, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static void appendDate(StringBuilder builder, long time) {
+        LocalDateTime date = LocalDateTime.ofEpochSecond(time / 1000, 0, ZoneOffset.UTC);
+        builder.append(date.getDayOfMonth()).append('.');
+        pad(builder, date.getMonthValue()).append('.').append(date.getYear()).append(' ');
+        builder.append(date.getHour()).append(':');
+        pad(builder, date.getMinute()).append(':');
+        pad(builder, date.getSecond());
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value) {
+        return builder.append(value < 10 ? "0" : "").append(value);
+    }
+
+    /**
+     * {@code java -cp benchmarks.jar bench.LogGenerator <dir> [lines] [files]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: LogGenerator <dir> [lines] [files]");
+            System.exit(2);
+        }
+        LogGenerator generator = new LogGenerator();
+        if (args.length > 1) {
+            generator.setLines(Long.parseLong(args[1]));
+        }
+        if (args.length > 2) {
+            generator.setFiles(Integer.parseInt(args[2]));
+        }
+        generator.write(Paths.get(args[0]));
+    }
+}
\ No newline at end of file
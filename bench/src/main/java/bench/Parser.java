@@ -0,0 +1,134 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calls into {@code LogParser}. The parser lives in the default package,
+ * which code in a named package can not refer to, and JMH refuses benchmarks
+ * in the default package; so the calls go through method handles. Their
+ * overhead is a few nanoseconds, far below the cost of any query measured.
+ */
+final class Parser {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+    private static final Class<?> PARSER = load("LogParser");
+    private static final Class<?> CONFIG = load("LogParserConfig");
+
+    private static final MethodHandle NEW_CONFIG = constructor(CONFIG);
+    private static final MethodHandle SET_PARALLELISM = method(CONFIG, "setParallelism", CONFIG, int.class);
+    private static final MethodHandle SET_MEMORY_MAPPED = method(CONFIG, "setMemoryMapped", CONFIG, boolean.class);
+    private static final MethodHandle NEW_PARSER = constructor(PARSER, Path.class, CONFIG);
+    private static final MethodHandle NUMBER_OF_UNIQUE_IPS = method(PARSER, "getNumberOfUniqueIPs", int.class, Date.class, Date.class);
+    private static final MethodHandle USERS_FOR_IP = method(PARSER, "getUsersForIP", Set.class, String.class, Date.class, Date.class);
+    private static final MethodHandle DATES_WHEN_SOMETHING_FAILED = method(PARSER, "getDatesWhenSomethingFailed", Set.class, Date.class, Date.class);
+    private static final MethodHandle EVENTS_FOR_USER = method(PARSER, "getEventsForUser", Set.class, String.class, Date.class, Date.class);
+    private static final MethodHandle DONE_TASKS = method(PARSER, "getAllDoneTasksAndTheirNumber", Map.class, Date.class, Date.class);
+    private static final MethodHandle EXECUTE = method(PARSER, "execute", Set.class, String.class);
+
+    private final Object parser;
+
+    private Parser(Object parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Reads every log file in {@code dir}.
+     */
+    static Parser open(Path dir, int parallelism, boolean memoryMapped) {
+        try {
+            Object config = NEW_CONFIG.invoke();
+            SET_PARALLELISM.invoke(config, parallelism);
+            SET_MEMORY_MAPPED.invoke(config, memoryMapped);
+            return new Parser(NEW_PARSER.invoke(dir, config));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    int getNumberOfUniqueIPs(Date after, Date before) {
+        try {
+            return (int) NUMBER_OF_UNIQUE_IPS.invoke(parser, after, before);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    Set<?> getUsersForIP(String ip, Date after, Date before) {
+        try {
+            return (Set<?>) USERS_FOR_IP.invoke(parser, ip, after, before);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    Set<?> getDatesWhenSomethingFailed(Date after, Date before) {
+        try {
+            return (Set<?>) DATES_WHEN_SOMETHING_FAILED.invoke(parser, after, before);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    Set<?> getEventsForUser(String user, Date after, Date before) {
+        try {
+            return (Set<?>) EVENTS_FOR_USER.invoke(parser, user, after, before);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    Map<?, ?> getAllDoneTasksAndTheirNumber(Date after, Date before) {
+        try {
+            return (Map<?, ?>) DONE_TASKS.invoke(parser, after, before);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    Set<?> execute(String query) {
+        try {
+            return (Set<?>) EXECUTE.invoke(parser, query);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("LogParser sources are not on the class path", e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            return LOOKUP.findConstructor(type, MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return LOOKUP.findVirtual(type, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One representative method of every query interface, against datasets of
+ * different sizes and date windows of different widths. The window is
+ * centred in the two years covered by the generated logs; {@code ALL}
+ * passes null bounds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class QueryBenchmark {
+    private static final int SPAN_DAYS = 730;
+
+    @Param({"100000", "1000000"})
+    private long lines;
+
+    @Param({"HOUR", "DAY", "MONTH", "ALL"})
+    private Window window;
+
+    private Dataset dataset;
+    private Parser parser;
+    private Date after;
+    private Date before;
+    private String ip;
+    private String user;
+    private String query;
+
+    public enum Window {
+        HOUR(3_600_000L), DAY(86_400_000L), MONTH(30 * 86_400_000L), ALL(0);
+
+        private final long millis;
+
+        Window(long millis) {
+            this.millis = millis;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void load() {
+        dataset = Dataset.generate(new LogGenerator()
+                .setLines(lines)
+                .setSpanDays(SPAN_DAYS)
+                .setUsers(10_000)
+                .setIps(50_000));
+        parser = Parser.open(dataset.dir(), 1, true);
+        // Low numbers are the most active users and addresses.
+        ip = LogGenerator.ip(3);
+        user = "user3";
+        SimpleDateFormat format = new SimpleDateFormat("d.M.yyyy H:m:s");
+        if (window == Window.ALL) {
+            query = "get user for event = \"LOGIN\"";
+            return;
+        }
+        long middle = LogGenerator.START + SPAN_DAYS * 86_400_000L / 2;
+        after = new Date(middle - window.millis / 2);
+        before = new Date(middle + window.millis / 2);
+        query = "get user for event = \"LOGIN\" and date between \"" + format.format(after)
+                + "\" and \"" + format.format(before) + "\"";
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public int ipQuery() {
+        return parser.getNumberOfUniqueIPs(after, before);
+    }
+
+    @Benchmark
+    public Set<?> userQuery() {
+        return parser.getUsersForIP(ip, after, before);
+    }
+
+    @Benchmark
+    public Set<?> dateQuery() {
+        return parser.getDatesWhenSomethingFailed(after, before);
+    }
+
+    @Benchmark
+    public Set<?> eventQuery() {
+        return parser.getEventsForUser(user, after, before);
+    }
+
+    @Benchmark
+    public Map<?, ?> taskQuery() {
+        return parser.getAllDoneTasksAndTheirNumber(after, before);
+    }
+
+    @Benchmark
+    public Set<?> qlQuery() {
+        return parser.execute(query);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,363 @@
+import bench.LogGenerator;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks every {@link IPQuery}, {@link UserQuery}, {@link DateQuery} and
+ * {@link EventQuery} method of {@link LogParser} against a plain scan of
+ * the same generated logs, for each way of storing and scanning the rows.
+ * Date ranges exclude both bounds, and a null bound leaves that side open.
+ */
+class QueryEquivalenceTest {
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("d.M.uuuu H:m:s").withResolverStyle(ResolverStyle.STRICT);
+
+    @TempDir
+    static Path directory;
+
+    private static Path logDir;
+    private static List<Row> rows;
+    private static List<Date[]> windows;
+    private static List<String> users;
+    private static List<String> ips;
+
+    interface Options {
+        LogParserConfig apply(LogParserConfig config, Path spillDirectory);
+    }
+
+    static Stream<Arguments> configurations() {
+        return Stream.of(
+                Arguments.of("default", (Options) (config, spill) -> config),
+                Arguments.of("parallel", (Options) (config, spill) -> config.setParallelism(4).setSplitSize(64 * 1024)
+                        .setQueryParallelism(4).setPartitionSize(1000)),
+                Arguments.of("memory mapped", (Options) (config, spill) -> config.setMemoryMapped(true)
+                        .setParallelism(2).setSplitSize(64 * 1024)),
+                Arguments.of("rollups", (Options) (config, spill) -> config
+                        .setRollups(ChronoUnit.DAYS, ChronoUnit.HOURS, ChronoUnit.MINUTES)
+                        .setQueryParallelism(3).setPartitionSize(2000)),
+                Arguments.of("distinct sketches", (Options) (config, spill) -> config.setDistinctError(0.02)
+                        .setRollups(ChronoUnit.DAYS, ChronoUnit.HOURS)),
+                Arguments.of("spill", (Options) (config, spill) -> config.setSpillDirectory(spill)
+                        .setSpillThreshold(5000).setRollups(ChronoUnit.DAYS, ChronoUnit.HOURS)
+                        .setQueryParallelism(2).setPartitionSize(3000)),
+                Arguments.of("time partitions", (Options) (config, spill) -> config.setTimePartition(ChronoUnit.DAYS)
+                        .setRollups(ChronoUnit.HOURS).setMemoryMapped(true)));
+    }
+
+    @BeforeAll
+    static void generateLogs() throws IOException {
+        logDir = directory.resolve("logs");
+        new LogGenerator().setLines(20_000).setFiles(3).setUsers(200).setIps(400).setTasks(12).setSpanDays(40)
+                .setMalformedRate(0.01).write(logDir);
+        rows = new ArrayList<>();
+        try (Stream<Path> files = Files.list(logDir)) {
+            for (Path file : files.sorted().collect(Collectors.toList())) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    Row row = Row.parse(line);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                }
+            }
+        }
+        long[] times = rows.stream().mapToLong(row -> row.time).filter(time -> time != NO_TIME).sorted().toArray();
+        long day = 86_400_000L;
+        long midnight = times[0] - Math.floorMod(times[0], day);
+        windows = Arrays.asList(
+                window(null, null),
+                window(null, times[times.length / 3]),
+                window(times[times.length / 2], null),
+                window(times[100], times[times.length - 100]),
+                window(times[5000], times[5000]),
+                window(times[7000], times[6000]),
+                window(midnight + 3 * day, midnight + 10 * day),
+                window(midnight + 12 * day + 3_600_000L, midnight + 12 * day + 5 * 3_600_000L),
+                window(times[9000] - 1, times[9001] + 1));
+        Map<String, Long> userCounts = rows.stream().collect(Collectors.groupingBy(row -> row.user, Collectors.counting()));
+        List<String> byActivity = userCounts.keySet().stream()
+                .sorted((a, b) -> Long.compare(userCounts.get(b), userCounts.get(a))).collect(Collectors.toList());
+        users = Arrays.asList(byActivity.get(0), byActivity.get(1), byActivity.get(byActivity.size() / 2),
+                byActivity.get(byActivity.size() - 1), "nobody");
+        Map<String, Long> ipCounts = rows.stream().collect(Collectors.groupingBy(row -> row.ip, Collectors.counting()));
+        List<String> ipsByActivity = ipCounts.keySet().stream()
+                .sorted((a, b) -> Long.compare(ipCounts.get(b), ipCounts.get(a))).collect(Collectors.toList());
+        ips = new ArrayList<>(Arrays.asList(ipsByActivity.get(0), ipsByActivity.get(ipsByActivity.size() / 2),
+                ipsByActivity.get(ipsByActivity.size() - 1), "192.0.2.1"));
+        ipsByActivity.stream().filter(ip -> ip.startsWith("host-")).findFirst().ifPresent(ips::add);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    void matchesPlainScan(String name, Options options) throws IOException {
+        Path spill = Files.createDirectories(directory.resolve("spill-" + name.replace(' ', '-')));
+        LogParserConfig config = options.apply(new LogParserConfig(), spill);
+        try (LogParser parser = new LogParser(logDir, config)) {
+            assertEquals(distinct(rows.stream(), row -> row.user), parser.getAllUsers(), "getAllUsers");
+            for (Date[] window : windows) {
+                Date after = window[0];
+                Date before = window[1];
+                String range = " in (" + after + ", " + before + ")";
+                checkIPQuery(parser, config, after, before, range);
+                checkUserQuery(parser, config, after, before, range);
+                checkDateQuery(parser, after, before, range);
+                checkEventQuery(parser, after, before, range);
+            }
+        }
+    }
+
+    private static void checkIPQuery(LogParser parser, LogParserConfig config, Date after, Date before, String range) {
+        Set<String> unique = distinct(in(after, before), row -> row.ip);
+        checkCount(config, unique.size(), parser.getNumberOfUniqueIPs(after, before), "getNumberOfUniqueIPs" + range);
+        assertEquals(unique, parser.getUniqueIPs(after, before), "getUniqueIPs" + range);
+        for (String user : users) {
+            assertEquals(distinct(in(after, before).filter(row -> row.user.equals(user)), row -> row.ip),
+                    parser.getIPsForUser(user, after, before), "getIPsForUser " + user + range);
+        }
+        for (Event event : Event.values()) {
+            assertEquals(distinct(in(after, before).filter(row -> row.event == event), row -> row.ip),
+                    parser.getIPsForEvent(event, after, before), "getIPsForEvent " + event + range);
+        }
+        for (Status status : Status.values()) {
+            assertEquals(distinct(in(after, before).filter(row -> row.status == status), row -> row.ip),
+                    parser.getIPsForStatus(status, after, before), "getIPsForStatus " + status + range);
+        }
+    }
+
+    private static void checkUserQuery(LogParser parser, LogParserConfig config, Date after, Date before,
+                                       String range) {
+        checkCount(config, distinct(in(after, before), row -> row.user).size(), parser.getNumberOfUsers(after, before),
+                "getNumberOfUsers" + range);
+        for (String user : users) {
+            assertEquals(distinct(in(after, before).filter(row -> row.user.equals(user)), row -> row.event).size(),
+                    parser.getNumberOfUserEvents(user, after, before), "getNumberOfUserEvents " + user + range);
+        }
+        for (String ip : ips) {
+            assertEquals(distinct(in(after, before).filter(row -> row.ip.equals(ip)), row -> row.user),
+                    parser.getUsersForIP(ip, after, before), "getUsersForIP " + ip + range);
+        }
+        assertEquals(usersWith(Event.LOGIN, -1, after, before), parser.getLoggedUsers(after, before),
+                "getLoggedUsers" + range);
+        assertEquals(usersWith(Event.DOWNLOAD_PLUGIN, -1, after, before), parser.getDownloadedPluginUsers(after, before),
+                "getDownloadedPluginUsers" + range);
+        assertEquals(usersWith(Event.WRITE_MESSAGE, -1, after, before), parser.getWroteMessageUsers(after, before),
+                "getWroteMessageUsers" + range);
+        assertEquals(usersWith(Event.SOLVE_TASK, -1, after, before), parser.getSolvedTaskUsers(after, before),
+                "getSolvedTaskUsers" + range);
+        assertEquals(usersWith(Event.DONE_TASK, -1, after, before), parser.getDoneTaskUsers(after, before),
+                "getDoneTaskUsers" + range);
+        for (int task : tasks()) {
+            assertEquals(usersWith(Event.SOLVE_TASK, task, after, before), parser.getSolvedTaskUsers(after, before, task),
+                    "getSolvedTaskUsers " + task + range);
+            assertEquals(usersWith(Event.DONE_TASK, task, after, before), parser.getDoneTaskUsers(after, before, task),
+                    "getDoneTaskUsers " + task + range);
+        }
+    }
+
+    private static void checkDateQuery(LogParser parser, Date after, Date before, String range) {
+        assertEquals(dates(in(after, before).filter(row -> row.status == Status.FAILED)),
+                parser.getDatesWhenSomethingFailed(after, before), "getDatesWhenSomethingFailed" + range);
+        assertEquals(dates(in(after, before).filter(row -> row.status == Status.ERROR)),
+                parser.getDatesWhenErrorHappened(after, before), "getDatesWhenErrorHappened" + range);
+        for (String user : users) {
+            for (Event event : Event.values()) {
+                assertEquals(dates(ofUser(user, event, -1, after, before)),
+                        parser.getDatesForUserAndEvent(user, event, after, before),
+                        "getDatesForUserAndEvent " + user + " " + event + range);
+            }
+            assertEquals(dates(ofUser(user, Event.WRITE_MESSAGE, -1, after, before)),
+                    parser.getDatesWhenUserWroteMessage(user, after, before),
+                    "getDatesWhenUserWroteMessage " + user + range);
+            assertEquals(dates(ofUser(user, Event.DOWNLOAD_PLUGIN, -1, after, before)),
+                    parser.getDatesWhenUserDownloadedPlugin(user, after, before),
+                    "getDatesWhenUserDownloadedPlugin " + user + range);
+            assertEquals(first(ofUser(user, Event.LOGIN, -1, after, before)),
+                    parser.getDateWhenUserLoggedFirstTime(user, after, before),
+                    "getDateWhenUserLoggedFirstTime " + user + range);
+            for (int task : tasks()) {
+                // Like the original implementation, the task is not looked at.
+                assertEquals(first(ofUser(user, Event.SOLVE_TASK, -1, after, before)),
+                        parser.getDateWhenUserSolvedTask(user, task, after, before),
+                        "getDateWhenUserSolvedTask " + user + " " + task + range);
+                assertEquals(first(ofUser(user, Event.DONE_TASK, task, after, before)),
+                        parser.getDateWhenUserDoneTask(user, task, after, before),
+                        "getDateWhenUserDoneTask " + user + " " + task + range);
+            }
+        }
+    }
+
+    private static void checkEventQuery(LogParser parser, Date after, Date before, String range) {
+        Set<Event> all = distinct(in(after, before), row -> row.event);
+        assertEquals(all.size(), parser.getNumberOfAllEvents(after, before), "getNumberOfAllEvents" + range);
+        assertEquals(all, parser.getAllEvents(after, before), "getAllEvents" + range);
+        for (String ip : ips) {
+            assertEquals(distinct(in(after, before).filter(row -> row.ip.equals(ip)), row -> row.event),
+                    parser.getEventsForIP(ip, after, before), "getEventsForIP " + ip + range);
+        }
+        for (String user : users) {
+            assertEquals(distinct(in(after, before).filter(row -> row.user.equals(user)), row -> row.event),
+                    parser.getEventsForUser(user, after, before), "getEventsForUser " + user + range);
+        }
+        assertEquals(distinct(in(after, before).filter(row -> row.status == Status.FAILED), row -> row.event),
+                parser.getFailedEvents(after, before), "getFailedEvents" + range);
+        assertEquals(distinct(in(after, before).filter(row -> row.status == Status.ERROR), row -> row.event),
+                parser.getErrorEvents(after, before), "getErrorEvents" + range);
+        for (int task : tasks()) {
+            long attempts = in(after, before).filter(row -> row.event == Event.SOLVE_TASK && row.task == task).count();
+            assertEquals(attempts, parser.getNumberOfAttemptToSolveTask(task, after, before),
+                    "getNumberOfAttemptToSolveTask " + task + range);
+            // Like the original implementation, every attempt counts as successful.
+            assertEquals(attempts, parser.getNumberOfSuccessfulAttemptToSolveTask(task, after, before),
+                    "getNumberOfSuccessfulAttemptToSolveTask " + task + range);
+        }
+        assertEquals(taskCounts(Event.SOLVE_TASK, after, before), parser.getAllSolvedTasksAndTheirNumber(after, before),
+                "getAllSolvedTasksAndTheirNumber" + range);
+        assertEquals(taskCounts(Event.DONE_TASK, after, before), parser.getAllDoneTasksAndTheirNumber(after, before),
+                "getAllDoneTasksAndTheirNumber" + range);
+    }
+
+    /**
+     * Distinct counts are exact unless the configuration estimates them, in
+     * which case they must lie within four standard errors.
+     */
+    private static void checkCount(LogParserConfig config, int expected, int actual, String query) {
+        if (config.getDistinctError() == 0) {
+            assertEquals(expected, actual, query);
+        } else {
+            assertTrue(Math.abs(actual - expected) <= 4 * config.getDistinctError() * expected + 2,
+                    query + ": expected about " + expected + " but was " + actual);
+        }
+    }
+
+    private static Stream<Row> in(Date after, Date before) {
+        long from = after == null ? 0 : after.getTime();
+        long to = before == null ? Long.MAX_VALUE : before.getTime();
+        return rows.stream().filter(row -> row.time != NO_TIME && row.time > from && row.time < to);
+    }
+
+    private static Stream<Row> ofUser(String user, Event event, int task, Date after, Date before) {
+        return in(after, before).filter(row -> row.user.equals(user) && row.event == event && (task < 0 || row.task == task));
+    }
+
+    private static Set<String> usersWith(Event event, int task, Date after, Date before) {
+        return distinct(in(after, before).filter(row -> row.event == event && (task < 0 || row.task == task)),
+                row -> row.user);
+    }
+
+    private static Map<Integer, Integer> taskCounts(Event event, Date after, Date before) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        in(after, before).filter(row -> row.event == event).forEach(row -> counts.merge(row.task, 1, Integer::sum));
+        return counts;
+    }
+
+    private static <T> Set<T> distinct(Stream<Row> rows, java.util.function.Function<Row, T> field) {
+        return rows.map(field).filter(Objects::nonNull).collect(Collectors.toSet());
+    }
+
+    private static Set<Date> dates(Stream<Row> rows) {
+        return rows.map(row -> new Date(row.time)).collect(Collectors.toSet());
+    }
+
+    private static Date first(Stream<Row> rows) {
+        return rows.mapToLong(row -> row.time).min().stream().mapToObj(Date::new).findFirst().orElse(null);
+    }
+
+    /**
+     * Every task that occurs, plus one that does not.
+     */
+    private static Set<Integer> tasks() {
+        Set<Integer> tasks = new TreeSet<>();
+        Predicate<Row> hasTask = row -> row.task >= 0;
+        rows.stream().filter(hasTask).forEach(row -> tasks.add(row.task));
+        tasks.add(1000);
+        return tasks;
+    }
+
+    private static Date[] window(Long after, Long before) {
+        return new Date[]{after == null ? null : new Date(after), before == null ? null : new Date(before)};
+    }
+
+    /**
+     * One log line as the original parser understood it: five tab separated
+     * fields, an event name optionally followed by a task number, and a date
+     * or status that is left out when it can not be read.
+     */
+    private static final class Row {
+        final String ip;
+        final String user;
+        final long time;
+        final Event event;
+        final int task;
+        final Status status;
+
+        private Row(String ip, String user, long time, Event event, int task, Status status) {
+            this.ip = ip;
+            this.user = user;
+            this.time = time;
+            this.event = event;
+            this.task = task;
+            this.status = status;
+        }
+
+        static Row parse(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length != 5) {
+                return null;
+            }
+            String[] eventAndTask = fields[3].split(" ", 2);
+            Event event = Arrays.stream(Event.values()).filter(value -> value.name().equals(eventAndTask[0]))
+                    .findFirst().orElse(null);
+            if (event == null) {
+                return null;
+            }
+            int task = -1;
+            boolean hasTask = event == Event.SOLVE_TASK || event == Event.DONE_TASK;
+            if (hasTask != (eventAndTask.length == 2)) {
+                return null;
+            }
+            if (hasTask) {
+                task = Integer.parseInt(eventAndTask[1].trim());
+            }
+            Status status = Arrays.stream(Status.values()).filter(value -> value.name().equals(fields[4]))
+                    .findFirst().orElse(null);
+            return new Row(fields[0], fields[1], time(fields[2]), event, task, status);
+        }
+
+        private static long time(String field) {
+            try {
+                return LocalDateTime.parse(field, DATE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return NO_TIME;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Counters of a {@link LogParser}'s result cache, taken at one point in
+ * time. Invalidations count entries dropped because newly published rows
+ * fell inside their window.
+ */
+public final class CacheStats {
+    private final int size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+
+    CacheStats(int size, long hits, long misses, long evictions, long invalidations) {
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{size=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", invalidations=" + invalidations + "}";
+    }
+}
\ No newline at end of file
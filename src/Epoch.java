@@ -0,0 +1,25 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One published state of a {@link LogParser}: its segments and the number
+ * of users that had been interned when they were published. An epoch never
+ * changes, so a reader holding one sees exactly its rows however much is
+ * published after it, without taking a lock.
+ */
+final class Epoch {
+    static final Epoch EMPTY = new Epoch(0, Collections.emptyList(), 0);
+
+    /**
+     * Counts the publications; a higher number may have more rows.
+     */
+    final long number;
+    final List<Segment> segments;
+    final int users;
+
+    Epoch(long number, List<Segment> segments, int users) {
+        this.number = number;
+        this.segments = segments;
+        this.users = users;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/**
+ * Parse counters of one log file, summed over everything read from it so
+ * far. Rates are per second of parsing time, which adds up the time of
+ * ranges parsed concurrently. A line can fail in more than one field;
+ * lines with a bad event or task are skipped, lines with a bad date or
+ * status are kept.
+ */
+public final class FileMetrics {
+    static final int FIELDS = 0;
+    static final int DATE = 1;
+    static final int EVENT = 2;
+    static final int TASK = 3;
+    static final int STATUS = 4;
+    static final int FAILURE_FIELDS = 5;
+
+    private final long lines;
+    private final long bytes;
+    private final long parseNanos;
+    private final long[] failures;
+
+    FileMetrics(long lines, long bytes, long parseNanos, long[] failures) {
+        this.lines = lines;
+        this.bytes = bytes;
+        this.parseNanos = parseNanos;
+        this.failures = failures;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Bytes of text parsed; for compressed files after inflating.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public double getLinesPerSecond() {
+        return parseNanos == 0 ? 0 : lines * 1e9 / parseNanos;
+    }
+
+    public double getBytesPerSecond() {
+        return parseNanos == 0 ? 0 : bytes * 1e9 / parseNanos;
+    }
+
+    /**
+     * Lines without exactly five tab separated fields; they are skipped.
+     */
+    public long getMalformedLines() {
+        return failures[FIELDS];
+    }
+
+    public long getDateFailures() {
+        return failures[DATE];
+    }
+
+    public long getEventFailures() {
+        return failures[EVENT];
+    }
+
+    public long getTaskFailures() {
+        return failures[TASK];
+    }
+
+    public long getStatusFailures() {
+        return failures[STATUS];
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetrics{lines=" + lines + ", bytes=" + bytes + ", parseNanos=" + parseNanos
+                + ", malformedLines=" + failures[FIELDS] + ", dateFailures=" + failures[DATE]
+                + ", eventFailures=" + failures[EVENT] + ", taskFailures=" + failures[TASK]
+                + ", statusFailures=" + failures[STATUS] + "}";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reading of gzip compressed log files ({@code .log.gz}). Any gzip file,
+ * including several members concatenated, can be streamed from the start.
+ * Files written in the BGZF layout of {@code bgzip} record the compressed
+ * size of every member in its header, so their members can be located
+ * without inflating anything and ranges of members can be read
+ * independently.
+ */
+class GzipInput {
+    static final String EXTENSION = ".log.gz";
+    private static final int HEADER = 18;
+    private static final int TRAILER = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private GzipInput() {
+    }
+
+    static boolean isCompressed(Path file) {
+        return file.toString().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Locates the members between {@code from} and {@code to}, or returns
+     * null unless all of them are BGZF members.
+     */
+    static Members members(FileChannel channel, long from, long to) throws IOException {
+        long[] offsets = new long[16];
+        int[] sizes = new int[16];
+        int count = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = from;
+        while (offset < to) {
+            if (to - offset < HEADER + TRAILER || !read(channel, header, offset)) {
+                return null;
+            }
+            if (!isBgzf(header)) {
+                return null;
+            }
+            long end = offset + (header.getShort(16) & 0xFFFF) + 1;
+            if (end > to || !read(channel, trailer, end - 4)) {
+                return null;
+            }
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+            }
+            offsets[count] = offset;
+            sizes[count] = trailer.getInt(0);
+            count++;
+            offset = end;
+        }
+        offsets[count] = to;
+        return new Members(Arrays.copyOf(offsets, count + 1), Arrays.copyOf(sizes, count));
+    }
+
+    /**
+     * Returns the end of the last whole member between {@code from} and
+     * {@code to}, leaving out a member that is still being written, or -1
+     * unless the members are BGZF members, whose size is in their header.
+     */
+    static long wholeMembersEnd(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = from;
+        while (to - offset >= HEADER && read(channel, header, offset)) {
+            if (!isBgzf(header)) {
+                return -1;
+            }
+            long end = offset + (header.getShort(16) & 0xFFFF) + 1;
+            if (end > to) {
+                break;
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private static boolean isBgzf(ByteBuffer header) {
+        return (header.getShort(0) & 0xFFFF) == 0x8B1F && header.get(2) == 8 && (header.get(3) & 4) != 0
+                && header.getShort(10) == 6 && header.get(12) == 'B' && header.get(13) == 'C'
+                && header.getShort(14) == 2;
+    }
+
+    /**
+     * Inflates the members from {@code start} up to {@code end}. With
+     * {@code readAhead} and when called from a fork-join worker, the next
+     * block is inflated on another worker while the caller works through
+     * the current one.
+     */
+    static InputStream open(FileChannel channel, long start, long end, boolean readAhead) throws IOException {
+        InputStream in = new GZIPInputStream(new LogReader.BoundedInputStream(
+                Channels.newInputStream(channel.position(start)), end - start), BUFFER_SIZE);
+        return readAhead && ForkJoinTask.inForkJoinPool() ? new ReadAhead(in) : in;
+    }
+
+    /**
+     * Whether the text of the member from {@code start} to {@code end} ends
+     * with a newline, that is whether the next member starts a new line.
+     */
+    static boolean endsWithNewline(Path file, long start, long end) throws IOException {
+        int last = -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream in = open(channel, start, end, false)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                if (n > 0) {
+                    last = buffer[n - 1];
+                }
+            }
+        }
+        return last == -1 || last == '\n';
+    }
+
+    private static boolean read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Member offsets of a BGZF file; {@code offsets} has one more entry
+     * than there are members, the end of the last one.
+     */
+    static final class Members {
+        final long[] offsets;
+        final int[] sizes;
+
+        Members(long[] offsets, int[] sizes) {
+            this.offsets = offsets;
+            this.sizes = sizes;
+        }
+
+        int count() {
+            return sizes.length;
+        }
+    }
+
+    /**
+     * Double buffering over a slow stream: while the caller reads one
+     * block, the next one is filled by a forked task.
+     */
+    private static final class ReadAhead extends InputStream {
+        private final InputStream in;
+        private byte[] block = new byte[0];
+        private int position;
+        private ForkJoinTask<byte[]> next;
+        private boolean eof;
+
+        ReadAhead(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == block.length && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (next != null) {
+                next.quietlyJoin();
+            }
+            in.close();
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            try {
+                block = next != null ? next.join() : readBlock();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            next = null;
+            position = 0;
+            if (block.length == 0) {
+                eof = true;
+                return false;
+            }
+            next = new RecursiveTask<byte[]>() {
+                @Override
+                protected byte[] compute() {
+                    try {
+                        return readBlock();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }.fork();
+            return true;
+        }
+
+        private byte[] readBlock() throws IOException {
+            return in.readNBytes(4 * BUFFER_SIZE);
+        }
+    }
+}
\ No newline at end of file
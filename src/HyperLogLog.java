@@ -0,0 +1,152 @@
+/**
+ * HyperLogLog sketch estimating the number of distinct ints added to it.
+ * It takes {@code 2^precision} bytes no matter how many values are added,
+ * and has a standard error of about {@code 1.04 / sqrt(2^precision)}.
+ * Sketches of the same precision can be merged. A sketch with few values
+ * can be compacted to its non-empty registers, which is then only merged
+ * into others.
+ */
+class HyperLogLog {
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+    private final int[] entries;
+
+    HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+        this.entries = null;
+    }
+
+    private HyperLogLog(int precision, int[] entries) {
+        this.precision = precision;
+        this.registers = null;
+        this.entries = entries;
+    }
+
+    /**
+     * Smallest precision whose standard error is at most {@code error}.
+     */
+    static int precisionFor(double error) {
+        double registers = Math.pow(1.04 / error, 2);
+        int precision = Math.max(MIN_PRECISION, 64 - Long.numberOfLeadingZeros((long) Math.ceil(registers) - 1));
+        if (precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("error bound is too small: " + error);
+        }
+        return precision;
+    }
+
+    void add(int value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    void addAll(int[] values) {
+        for (int value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Folds {@code other} into this sketch and returns this sketch.
+     */
+    HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("precision mismatch: " + precision + " and " + other.precision);
+        }
+        if (other.entries != null) {
+            for (int entry : other.entries) {
+                byte rank = (byte) entry;
+                if (rank > registers[entry >>> 8]) {
+                    registers[entry >>> 8] = rank;
+                }
+            }
+            return this;
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * This sketch, or while that is smaller, one that keeps only the
+     * non-empty registers as their index shifted left by eight bits or'ed
+     * with their value, four bytes each. The compact sketch can only be
+     * merged into others.
+     */
+    HyperLogLog compact() {
+        int used = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                used++;
+            }
+        }
+        if (4L * used >= registers.length) {
+            return this;
+        }
+        int[] entries = new int[used];
+        int n = 0;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] != 0) {
+                entries[n++] = i << 8 | registers[i];
+            }
+        }
+        return new HyperLogLog(precision, entries);
+    }
+
+    /**
+     * Estimated number of distinct values added. Small cardinalities, where
+     * many registers are still empty, are estimated by linear counting.
+     */
+    long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+/**
+ * Open addressing set of primitive ints, used to collect distinct codes
+ * during a scan without boxing.
+ */
+class IntSet {
+    private int[] slots = new int[16];
+    private boolean[] used = new boolean[16];
+    private int size;
+
+    boolean add(int value) {
+        int mask = slots.length - 1;
+        int slot = mix(value) & mask;
+        while (used[slot]) {
+            if (slots[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        used[slot] = true;
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        int mask = slots.length - 1;
+        int slot = mix(value) & mask;
+        while (used[slot]) {
+            if (slots[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    void addAll(IntSet other) {
+        for (int i = 0; i < other.slots.length; i++) {
+            if (other.used[i]) {
+                add(other.slots[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (used[i]) {
+                values[n++] = slots[i];
+            }
+        }
+        return values;
+    }
+
+    private void rehash() {
+        int[] oldSlots = slots;
+        boolean[] oldUsed = used;
+        slots = new int[oldSlots.length * 2];
+        used = new boolean[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            int slot = mix(oldSlots[i]) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = oldSlots[i];
+            used[slot] = true;
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
\ No newline at end of file
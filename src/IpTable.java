@@ -0,0 +1,137 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes IP addresses as ints. A dotted IPv4 address is packed into its 32
+ * bit value and needs no table at all. Anything else (IPv6, host names,
+ * addresses with leading zeros) is interned into a fallback symbol table; its
+ * id is used as the code. Fallback codes live in {@code 0.0.0.0/8}, which is
+ * why addresses in that block are never packed.
+ */
+class IpTable {
+    static final long ABSENT = -1L;
+    private static final int FALLBACK_LIMIT = 1 << 24;
+
+    private final SymbolTable fallback;
+
+    IpTable(Charset charset) {
+        this.fallback = new SymbolTable(charset);
+    }
+
+    int intern(ByteBuffer buffer, int from, int to) {
+        long packed = pack(buffer, from, to);
+        return packed >= 0 ? (int) packed : fallbackCode(fallback.intern(buffer, from, to));
+    }
+
+    int intern(String ip) {
+        long packed = pack(ip);
+        return packed >= 0 ? (int) packed : fallbackCode(fallback.intern(ip));
+    }
+
+    /**
+     * Returns the code of {@code ip}, or {@link #ABSENT} if it can not occur
+     * in the data.
+     */
+    long find(String ip) {
+        if (ip == null) {
+            return ABSENT;
+        }
+        long packed = pack(ip);
+        if (packed >= 0) {
+            return packed;
+        }
+        int id = fallback.find(ip);
+        return id < 0 ? ABSENT : id;
+    }
+
+    String get(int code) {
+        if (!isPacked(code)) {
+            return fallback.get(code);
+        }
+        return (code >>> 24) + "." + (code >>> 16 & 0xff) + "." + (code >>> 8 & 0xff) + "." + (code & 0xff);
+    }
+
+    static boolean isPacked(int code) {
+        return code >>> 24 != 0;
+    }
+
+    /**
+     * Number of addresses held in the fallback table.
+     */
+    int fallbackSize() {
+        return fallback.size();
+    }
+
+    String fallbackValue(int id) {
+        return fallback.get(id);
+    }
+
+    private static int fallbackCode(int id) {
+        if (id >= FALLBACK_LIMIT) {
+            throw new IllegalStateException("Too many non IPv4 addresses: " + id);
+        }
+        return id;
+    }
+
+    private static long pack(ByteBuffer buffer, int from, int to) {
+        long packed = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i <= to; i++) {
+            int c = i == to ? '.' : buffer.get(i);
+            if (c == '.') {
+                if (digits == 0 || octets == 4) {
+                    return -1;
+                }
+                packed = packed << 8 | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits == 1 && value == 0 || digits == 3) {
+                    return -1;
+                }
+                value = value * 10 + c - '0';
+                digits++;
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 && packed >>> 24 != 0 ? packed : -1;
+    }
+
+    private static long pack(String ip) {
+        long packed = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i <= ip.length(); i++) {
+            int c = i == ip.length() ? '.' : ip.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || octets == 4) {
+                    return -1;
+                }
+                packed = packed << 8 | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits == 1 && value == 0 || digits == 3) {
+                    return -1;
+                }
+                value = value * 10 + c - '0';
+                digits++;
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 && packed >>> 24 != 0 ? packed : -1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,194 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a buffer of log text into lines and tab separated fields without
+ * decoding it. Fields are exposed as byte offsets into the buffer, and the
+ * event and status columns can be matched in place.
+ */
+class LineTokenizer {
+    static final int FIELDS = 5;
+    private static final Event[] EVENTS = Event.values();
+    private static final Status[] STATUSES = Status.values();
+    private static final byte[][] EVENT_NAMES = names(EVENTS);
+    private static final byte[][] STATUS_NAMES = names(STATUSES);
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int position;
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+    private int fieldCount;
+    private int lastNonEmpty;
+    private int lineStart;
+    private int lineEnd;
+
+    LineTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Advances to the next line. Like {@code String.split("\t")} trailing
+     * empty fields are not counted.
+     */
+    boolean nextLine() {
+        if (position >= limit) {
+            return false;
+        }
+        int field = 0;
+        int begin = position;
+        lineStart = position;
+        lastNonEmpty = -1;
+        int i = position;
+        for (; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\t') {
+                closeField(field++, begin, i);
+                begin = i + 1;
+            }
+        }
+        int end = i;
+        if (end > begin && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        closeField(field, begin, end);
+        lineEnd = end;
+        fieldCount = lastNonEmpty + 1;
+        position = i + 1;
+        return true;
+    }
+
+    private void closeField(int field, int begin, int end) {
+        if (field < FIELDS) {
+            fieldStart[field] = begin;
+            fieldEnd[field] = end;
+        }
+        if (end > begin) {
+            lastNonEmpty = field;
+        }
+    }
+
+    /**
+     * Buffer index of the first byte of the current line.
+     */
+    int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Buffer index just past the current line, without its line break.
+     */
+    int lineEnd() {
+        return lineEnd;
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    int start(int field) {
+        return fieldStart[field];
+    }
+
+    int end(int field) {
+        return fieldEnd[field];
+    }
+
+    int length(int field) {
+        return fieldEnd[field] - fieldStart[field];
+    }
+
+    /**
+     * Returns the event named by {@code field}, or null if it is not one.
+     * Task events may be followed by spaces and the task number.
+     */
+    Event event(int field) {
+        int from = fieldStart[field];
+        int to = fieldEnd[field];
+        for (int i = 0; i < EVENTS.length; i++) {
+            byte[] name = EVENT_NAMES[i];
+            if (!startsWith(from, to, name)) {
+                continue;
+            }
+            if (from + name.length == to) {
+                return EVENTS[i];
+            }
+            if (hasTask(EVENTS[i]) && buffer.get(from + name.length) == ' ') {
+                return EVENTS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the task number that follows the event name, or -1 if there is
+     * none.
+     */
+    int task(int field, Event event) {
+        int i = fieldStart[field] + EVENT_NAMES[event.ordinal()].length;
+        int to = fieldEnd[field];
+        while (i < to && buffer.get(i) == ' ') {
+            i++;
+        }
+        if (i == to) {
+            return -1;
+        }
+        long task = 0;
+        for (; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            task = task * 10 + digit;
+            if (task > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) task;
+    }
+
+    Status status(int field) {
+        int from = fieldStart[field];
+        int to = fieldEnd[field];
+        for (int i = 0; i < STATUSES.length; i++) {
+            byte[] name = STATUS_NAMES[i];
+            if (from + name.length == to && startsWith(from, to, name)) {
+                return STATUSES[i];
+            }
+        }
+        return null;
+    }
+
+    static boolean hasTask(Event event) {
+        return event == Event.SOLVE_TASK || event == Event.DONE_TASK;
+    }
+
+    private boolean startsWith(int from, int to, byte[] name) {
+        if (to - from < name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Inverted indexes over a time sorted {@link LogStore}: one {@link RowBitmap}
+ * of row numbers per distinct user, IP, event, status and task number.
+ * Lookups for values that do not occur return an empty bitmap.
+ *
+ * <p>Users are numbered by slots in the order they first occur, so the
+ * index only grows with the users of its own rows. Each user also has a
+ * timeline per event: the ascending row numbers of
+ * the user's rows with that event, stored back to back in one array. Rows
+ * are sorted by time, so a time range of a user's activity is found by
+ * binary search within the user's own rows.
+ */
+class LogIndex {
+    private static final RowBitmap EMPTY = new RowBitmap();
+    private static final int EVENTS = Event.values().length;
+
+    private final LongIds userSlots = new LongIds();
+    private final RowBitmap[] users;
+    private final Map<Integer, RowBitmap> ips = new HashMap<>();
+    private final RowBitmap[] events = new RowBitmap[Event.values().length];
+    private final RowBitmap[] statuses = new RowBitmap[Status.values().length];
+    private final Map<Integer, RowBitmap> tasks = new HashMap<>();
+    private final int[] timelineStarts;
+    private final int[] timelineRows;
+
+    LogIndex(LogStore store) {
+        byte[] eventColumn = store.events();
+        byte[] statusColumn = store.statuses();
+        int[] taskColumn = store.tasks();
+        int[] ipCodes = store.ipCodes();
+        int[] userIds = store.userIds();
+        int[] slots = new int[store.size()];
+        for (int row = 0; row < store.size(); row++) {
+            slots[row] = userSlots.add(userIds[row]);
+        }
+        users = new RowBitmap[userSlots.size()];
+        for (int row = 0; row < store.size(); row++) {
+            add(users, slots[row], row);
+            ips.computeIfAbsent(ipCodes[row], code -> new RowBitmap()).add(row);
+            if (eventColumn[row] != LogStore.NONE) {
+                add(events, eventColumn[row], row);
+            }
+            if (statusColumn[row] != LogStore.NONE) {
+                add(statuses, statusColumn[row], row);
+            }
+            if (taskColumn[row] >= 0) {
+                tasks.computeIfAbsent(taskColumn[row], task -> new RowBitmap()).add(row);
+            }
+        }
+        trim(users);
+        trim(events);
+        trim(statuses);
+        ips.values().forEach(RowBitmap::trim);
+        tasks.values().forEach(RowBitmap::trim);
+
+        timelineStarts = new int[users.length * EVENTS + 1];
+        for (int row = 0; row < store.size(); row++) {
+            if (eventColumn[row] != LogStore.NONE) {
+                timelineStarts[slots[row] * EVENTS + eventColumn[row] + 1]++;
+            }
+        }
+        for (int i = 1; i < timelineStarts.length; i++) {
+            timelineStarts[i] += timelineStarts[i - 1];
+        }
+        timelineRows = new int[timelineStarts[timelineStarts.length - 1]];
+        int[] next = Arrays.copyOf(timelineStarts, timelineStarts.length - 1);
+        for (int row = 0; row < store.size(); row++) {
+            if (eventColumn[row] != LogStore.NONE) {
+                timelineRows[next[slots[row] * EVENTS + eventColumn[row]]++] = row;
+            }
+        }
+    }
+
+    RowBitmap user(int userId) {
+        int slot = userSlots.find(userId);
+        return slot < 0 ? EMPTY : users[slot];
+    }
+
+    RowBitmap ip(int ipCode) {
+        return ips.getOrDefault(ipCode, EMPTY);
+    }
+
+    RowBitmap event(Event event) {
+        return events[event.ordinal()] == null ? EMPTY : events[event.ordinal()];
+    }
+
+    RowBitmap status(Status status) {
+        return statuses[status.ordinal()] == null ? EMPTY : statuses[status.ordinal()];
+    }
+
+    RowBitmap task(int task) {
+        return tasks.getOrDefault(task, EMPTY);
+    }
+
+    /**
+     * Returns the first row of {@code userId} with {@code event} in
+     * {@code [from, to)}, or -1 if there is none.
+     */
+    int firstOfUser(int userId, Event event, int from, int to) {
+        int user = userSlots.find(userId);
+        if (user < 0) {
+            return -1;
+        }
+        int slot = user * EVENTS + event.ordinal();
+        int i = seek(timelineStarts[slot], timelineStarts[slot + 1], from);
+        return i < timelineStarts[slot + 1] && timelineRows[i] < to ? timelineRows[i] : -1;
+    }
+
+    /**
+     * Calls {@code action} for every row of {@code userId} with
+     * {@code event} in {@code [from, to)} in ascending order.
+     */
+    void forEachOfUser(int userId, Event event, int from, int to, IntConsumer action) {
+        int user = userSlots.find(userId);
+        if (user < 0) {
+            return;
+        }
+        int slot = user * EVENTS + event.ordinal();
+        int end = timelineStarts[slot + 1];
+        for (int i = seek(timelineStarts[slot], end, from); i < end && timelineRows[i] < to; i++) {
+            action.accept(timelineRows[i]);
+        }
+    }
+
+    private int seek(int start, int end, int row) {
+        int i = Arrays.binarySearch(timelineRows, start, end, row);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static void add(RowBitmap[] bitmaps, int key, int row) {
+        if (bitmaps[key] == null) {
+            bitmaps[key] = new RowBitmap();
+        }
+        bitmaps[key].add(row);
+    }
+
+    private static void trim(RowBitmap[] bitmaps) {
+        for (RowBitmap bitmap : bitmaps) {
+            if (bitmap != null) {
+                bitmap.trim();
+            }
+        }
+    }
+}
\ No newline at end of file
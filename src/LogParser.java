@@ -1,492 +1,827 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 
-public class LogParser implements IPQuery, UserQuery,DateQuery, EventQuery, QLQuery {
+public class LogParser implements IPQuery, UserQuery,DateQuery, EventQuery, QLQuery, StreamQuery, AutoCloseable {
+    private static final AtomicInteger instances = new AtomicInteger();
+    private static final Logger LOGGER = Logger.getLogger(LogParser.class.getName());
+
     private Path logDir;
-    private List<LogEntity> logEntities = new ArrayList<>();
-    private DateFormat simpleDateFormat = new SimpleDateFormat("d.M.yyyy H:m:s");
+    private final LogParserConfig config;
+    private final IpTable ips;
+    private final SymbolTable users;
+    private final LogReader reader;
+    private final LogTailer tailer;
+    private final ScheduledExecutorService follower;
+    private final LruCache<String, QueryPlan> plans;
+    private final LruCache<SegmentFile.Block, SegmentFile.Decoded> decodedBlocks;
+    private final long[] bucketWidths;
+    private final long partitionWidth;
+    private final int distinctPrecision;
+    private final ForkJoinPool queryPool;
+    private final Scan scan;
+    private final ResultCache resultCache;
+    private final boolean pinned;
+    private final Metrics metrics;
+    private final Quarantine quarantine;
+    private final Map<Path, String> failedFiles;
+    private final ObjectName mbeanName;
+    private volatile Epoch epoch = Epoch.EMPTY;
 
 
 
     public LogParser(Path logDir) {
+        this(logDir, new LogParserConfig());
+    }
+
+    public LogParser(Path logDir, LogParserConfig config) {
         this.logDir = logDir;
-        readLogs();
+        this.config = config;
+        this.ips = new IpTable(Charset.defaultCharset());
+        this.users = new SymbolTable(Charset.defaultCharset());
+        this.metrics = config.isMetricsEnabled() ? new Metrics() : null;
+        this.quarantine = config.getQuarantineSize()>0 ? new Quarantine(config.getQuarantineSize()) : null;
+        this.failedFiles = new ConcurrentHashMap<>();
+        this.reader = new LogReader(config, metrics, quarantine);
+        this.plans = new LruCache<>(config.getPlanCacheSize());
+        this.decodedBlocks = new LruCache<>(config.getBlockCacheSize());
+        this.bucketWidths = Arrays.stream(config.getRollups()).mapToLong(unit -> unit.getDuration().toMillis()).toArray();
+        this.partitionWidth = config.getTimePartition()==null ? 0 : config.getTimePartition().getDuration().toMillis();
+        this.distinctPrecision = config.getDistinctError()>0 ? HyperLogLog.precisionFor(config.getDistinctError()) : 0;
+        this.queryPool = config.getQueryParallelism()>1 ? new ForkJoinPool(config.getQueryParallelism()) : null;
+        this.scan = new Scan(queryPool, config.getPartitionSize(), metrics);
+        this.resultCache = config.getResultCacheSize()>0 ? new ResultCache(config.getResultCacheSize()) : null;
+        this.pinned = false;
+        if(config.getFollowInterval()>0){
+            tailer = new LogTailer(logDir, reader);
+            refresh();
+            follower = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "log-follower " + logDir);
+                thread.setDaemon(true);
+                return thread;
+            });
+            follower.scheduleWithFixedDelay(this::refresh, config.getFollowInterval(),
+                    config.getFollowInterval(), TimeUnit.MILLISECONDS);
+        }else{
+            tailer = null;
+            follower = null;
+            readLogs();
+        }
+        this.mbeanName = metrics==null ? null : register();
     }
 
-    public int getNumberOfUniqueIPs(Date after, Date before) {
-        return getUniqueIPs(after, before).size();
+    /**
+     * A read-only view of {@code parent} pinned to {@code epoch}; it shares
+     * the parent's tables, plan cache and query threads. It has no result
+     * cache: the parent's entries belong to the parent's current epoch.
+     */
+    private LogParser(LogParser parent, Epoch epoch) {
+        this.logDir = parent.logDir;
+        this.config = parent.config;
+        this.ips = parent.ips;
+        this.users = parent.users;
+        this.reader = parent.reader;
+        this.tailer = null;
+        this.follower = null;
+        this.plans = parent.plans;
+        this.decodedBlocks = parent.decodedBlocks;
+        this.bucketWidths = parent.bucketWidths;
+        this.partitionWidth = parent.partitionWidth;
+        this.distinctPrecision = parent.distinctPrecision;
+        this.queryPool = null;
+        this.scan = parent.scan;
+        this.resultCache = null;
+        this.pinned = true;
+        this.metrics = parent.metrics;
+        this.quarantine = parent.quarantine;
+        this.failedFiles = parent.failedFiles;
+        this.mbeanName = null;
+        this.epoch = epoch;
     }
 
-    public Set<String> getUniqueIPs(Date after,Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                set.add(logEntities.get(i).getIp());
+    /**
+     * Returns a read-only view of the logs as they are now. Lines added by
+     * later refreshes never show up in the view, so a series of queries on it
+     * agree with each other, while this parser keeps taking new lines. The
+     * view copies nothing and takes no lock; it can not be refreshed, and
+     * closing it does nothing.
+     */
+    public LogParser pin() {
+        return new LogParser(this, epoch);
+    }
+
+    /**
+     * Number of times new lines have been made visible to queries. Results
+     * can only change when it changes.
+     */
+    public long getEpoch() {
+        return epoch.number;
+    }
+
+    /**
+     * Takes a snapshot of the store and, if metrics are enabled, of the parse
+     * and query counters. Queries are timed per method, from the call to
+     * the result; stream queries are lazy and are not timed.
+     */
+    public MetricsSnapshot getMetrics() {
+        Epoch current = epoch;
+        long rows = 0, mappedRows = 0, heapBytes = 0, mappedBytes = 0;
+        for (Segment segment : current.segments) {
+            rows += segment.size();
+            if(segment.isMapped()){
+                mappedRows += segment.size();
+                mappedBytes += segment.bytes();
+            }else{
+                heapBytes += segment.bytes();
             }
         }
-        return set;
+        return new MetricsSnapshot(current.number, rows, mappedRows, current.segments.size(), heapBytes, mappedBytes,
+                metrics==null ? Collections.emptyMap() : metrics.files(),
+                metrics==null ? Collections.emptyMap() : metrics.queries(), getResultCacheStats());
     }
 
-    public Set<String> getIPsForUser(String user, Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)){
-                    set.add(logEntities.get(i).getIp());
-                }
-            }
+    /**
+     * Log files that could not be read, with the reason. The parts of such a
+     * file that could be read are kept. In follow mode the map holds the
+     * files that failed on the last refresh; they are tried again on the
+     * next one.
+     */
+    public Map<Path, String> getFailedFiles() {
+        return new TreeMap<>(failedFiles);
+    }
+
+    /**
+     * Returns the lines rejected since the last call, in the order they were
+     * read, and empties the quarantine; see
+     * {@link LogParserConfig#setQuarantineSize}.
+     */
+    public List<RejectedLine> drainQuarantine() {
+        return quarantine==null ? new ArrayList<>() : quarantine.drain();
+    }
+
+    private ObjectName register() {
+        try{
+            ObjectName name = new ObjectName("LogParser:type=LogParser,dir=" + ObjectName.quote(logDir.toString())
+                    + ",id=" + instances.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(new Management(), LogParserMXBean.class, true), name);
+            return name;
+        }catch(Exception e){
+            LOGGER.log(Level.WARNING, "Could not register the management bean of " + logDir, e);
+            return null;
         }
-        return set;
     }
 
-    public Set<String> getIPsForEvent(Event event, Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for(int i=0;i<logEntities.size();i++){
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(event)){
-                    set.add(logEntities.get(i).getIp());
-                }
-            }
+    /**
+     * Counters of the result cache; all zero if it is disabled.
+     */
+    public CacheStats getResultCacheStats() {
+        return resultCache==null ? new CacheStats(0, 0, 0, 0, 0) : resultCache.stats();
+    }
+
+    /**
+     * Reads the lines appended to the log files since the last refresh and
+     * makes them visible to queries. Only available in follow mode; it is
+     * called periodically by the follower thread, but may also be called to
+     * pick up new lines right away. The lines of a file that can not be read
+     * are left for a later refresh; those of the other files are published.
+     */
+    public synchronized void refresh() {
+        if(tailer==null){
+            throw new IllegalStateException("LogParser is not following " + logDir);
+        }
+        LogStore batch = new LogStore(ips, users);
+        try{
+            Map<Path, IOException> failures = tailer.poll(batch);
+            failedFiles.keySet().retainAll(failures.keySet());
+            fail(failures);
+        }catch(Exception e){
+            LOGGER.log(Level.WARNING, "Could not refresh " + logDir, e);
         }
-        return set;
+        publish(batch);
     }
 
-    public Set<String> getIPsForStatus(Status status,Date after,Date before) {
-        Set<String> set = new HashSet<>();
-        for(int i=0;i< logEntities.size();i++){
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getStatus().equals(status)){
-                    set.add(logEntities.get(i).getIp());
-                }
+    /**
+     * Stops following the log directory and shuts down the query threads.
+     */
+    @Override
+    public void close() {
+        if(follower!=null){
+            follower.shutdownNow();
+        }
+        if(queryPool!=null){
+            queryPool.shutdown();
+        }
+        if(mbeanName!=null){
+            try{
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            }catch(Exception e){
+                LOGGER.log(Level.WARNING, "Could not unregister the management bean of " + logDir, e);
             }
         }
-        return set;
     }
+
     private void readLogs(){
-        try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)){
-        for(Path file:directoryStream){
-            if(file.toString().toLowerCase().endsWith(".log")){
-                try(BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))){
-                    String line = null;
-                    while((line=reader.readLine())!=null){
-                        String[] params = line.split("\t");
-                        if(params.length!=5){continue;}
-                        String ip=params[0];
-                        String user = params[1];
-                        Date date = readDate(params[2]);
-                        Event event = readEvent(params[3]);
-                        int eventAdditionalParameter = -1;
-                        if(event.equals(Event.SOLVE_TASK) || event.equals(Event.DONE_TASK)){
-                            eventAdditionalParameter = readAdditionalParameter(params[3]);
-                        }
-                        Status status = readStatus(params[4]);
-                        LogEntity logEntity = new LogEntity(ip,user,date,event,eventAdditionalParameter,status);
-                        logEntities.add(logEntity);
-                    }
-                }
+        LogStore store = new LogStore(ips, users);
+        try{
+            if(config.isSnapshot()){
+                fail(new Snapshot(logDir.resolve(Snapshot.FILE_NAME), reader, config.isMemoryMapped()).read(logDir, store));
+            }else if(config.getSpillDirectory()!=null){
+                fail(reader.read(logDir, part -> {
+                    LogStore batch = new LogStore(ips, users);
+                    batch.addAll(part);
+                    publish(batch);
+                }));
+            }else{
+                fail(reader.read(logDir, store::addAll));
             }
-        }
         }catch(Exception e){
-            e.printStackTrace();
+            LOGGER.log(Level.WARNING, "Could not read " + logDir, e);
         }
+        publish(store);
+    }
+
+    /**
+     * Records files that could not be read; a failure is logged when it is
+     * new, not every time a file is retried.
+     */
+    private void fail(Map<Path, IOException> failures){
+        failures.forEach((file, e) -> {
+            if(!e.toString().equals(failedFiles.put(file, e.toString()))){
+                LOGGER.log(Level.WARNING, "Could not read " + file, e);
+            }
+        });
     }
-    private Date readDate(String lineToParse){
-        Date date = null;
-        try{
-            date = simpleDateFormat.parse(lineToParse);
-        }catch(Exception ignore){
 
+    /**
+     * Adds {@code batch} as a new segment and swaps in the new segment list
+     * in one step, so a running query sees either all or none of the batch.
+     * A segment at least half the size of its predecessor is merged into it,
+     * which keeps the number of segments logarithmic in the number of rows.
+     * With time partitions the batch is first cut into one segment per
+     * period, and only segments of the same period are merged. With a spill
+     * directory, the last segment is moved to a spill file once it holds
+     * enough rows; spilled segments are never merged again.
+     */
+    private synchronized void publish(LogStore batch) {
+        if(batch.size()==0){
+            return;
+        }
+        Epoch current = epoch;
+        List<Segment> next = new ArrayList<>(current.segments);
+        batch.sortByTime();
+        int first = batch.rangeStart(0);
+        long earliest = first<batch.size() ? batch.times()[first] : Long.MAX_VALUE;
+        for(LogStore part : partition(batch)){
+            next.add(new Segment(part, bucketWidths, distinctPrecision));
+            compact(next);
+        }
+        epoch = new Epoch(current.number+1, Collections.unmodifiableList(next), users.size());
+        if(resultCache!=null){
+            resultCache.advance(current.number, current.number+1, earliest);
         }
-        return date;
     }
-    private Event readEvent(String lineToParse){
-        Event event = null;
-        if(lineToParse.contains("SOLVE_TASK")){
-            event=Event.SOLVE_TASK;
-        }else if(lineToParse.contains("DONE_TASK")){
-            event=Event.DONE_TASK;
-        }else{
-            switch (lineToParse){
-                case "LOGIN"-> event=Event.LOGIN;
-                case "DOWNLOAD_PLUGIN"-> event=Event.DOWNLOAD_PLUGIN;
-                case "WRITE_MESSAGE"->event = Event.WRITE_MESSAGE;
+
+    /**
+     * Cuts the sorted {@code batch} into runs of rows of the same time
+     * partition.
+     */
+    private List<LogStore> partition(LogStore batch) {
+        if(partitionWidth==0 || partitionOf(batch.times()[0])==partitionOf(batch.times()[batch.size()-1])){
+            return Collections.singletonList(batch);
+        }
+        List<LogStore> parts = new ArrayList<>();
+        int start = 0;
+        for(int row = 1; row <= batch.size(); row++){
+            if(row==batch.size() || partitionOf(batch.times()[row])!=partitionOf(batch.times()[start])){
+                parts.add(batch.copyOfRange(start, row));
+                start = row;
             }
         }
-        return event;
+        return parts;
     }
-    private int readAdditionalParameter(String lineToParse){
-        if(lineToParse.contains("SOLVE_TASK")){
-            lineToParse.replace("SOLVE_TASK","").replaceAll(" ","");
-        }else{
-            lineToParse.replace("DONE_TASK","").replaceAll(" ","");
+
+    private long partitionOf(long time) {
+        return Math.floorDiv(time, partitionWidth);
+    }
+
+    private void compact(List<Segment> segments) {
+        while(segments.size()>=2 && mergeable(segments.get(segments.size()-2), segments.get(segments.size()-1))){
+            Segment last = segments.remove(segments.size()-1);
+            segments.set(segments.size()-1, Segment.merge(segments.get(segments.size()-1), last));
+        }
+        if(config.getSpillDirectory()!=null && segments.get(segments.size()-1).size()>=config.getSpillThreshold()){
+            try{
+                List<Segment> blocks = SegmentFile.spill(segments.get(segments.size()-1), config.getSpillDirectory(),
+                        decodedBlocks);
+                segments.remove(segments.size()-1);
+                segments.addAll(blocks);
+            }catch(IOException e){
+                LOGGER.log(Level.WARNING, "Could not spill to " + config.getSpillDirectory()
+                        + ", keeping the rows on the heap", e);
+            }
         }
-        return Integer.parseInt(lineToParse);
     }
-    private Status readStatus(String lineToParse){
-        Status status = null;
-        switch(lineToParse){
-            case "OK": status =Status.OK;
-            break;
-            case "ERROR": status = Status.ERROR;
-            break;
-            case "FAILED" : status = Status.FAILED;
+
+    private boolean mergeable(Segment previous, Segment last) {
+        if(previous.isMapped() || previous.size()>2*last.size()){
+            return false;
         }
-        return status;
+        return partitionWidth==0 || partitionOf(previous.firstTime())==partitionOf(last.firstTime());
     }
-    private boolean dateBetweenDates(Date current, Date after, Date before){
-        if(after==null){
-            after = new Date(0);
+
+    /**
+     * Discards the segments whose rows all lie before {@code before} and
+     * returns the number of rows dropped. With time partitions these are
+     * exactly the periods that end before {@code before} once their
+     * segments have been merged; the period containing {@code before} is
+     * kept whole. Dropping is a new epoch like a refresh: pinned views keep
+     * seeing the old rows, and cached results for windows that start at or
+     * after the last dropped row stay valid.
+     */
+    public synchronized int dropPartitionsBefore(Date before) {
+        if(pinned){
+            throw new IllegalStateException("Can not drop rows from a pinned view");
+        }
+        Epoch current = epoch;
+        List<Segment> next = new ArrayList<>(current.segments.size());
+        int dropped = 0;
+        long latest = Long.MIN_VALUE;
+        for(Segment segment : current.segments){
+            if(segment.lastTime()<before.getTime()){
+                dropped += segment.size();
+                latest = Math.max(latest, segment.lastTime());
+            }else{
+                next.add(segment);
+            }
+        }
+        if(dropped==0){
+            return 0;
         }
-        if(before ==null){
-            before = new Date(Long.MAX_VALUE);
+        epoch = new Epoch(current.number+1, Collections.unmodifiableList(next), current.users);
+        if(resultCache!=null){
+            resultCache.retainAfter(current.number, current.number+1, latest);
         }
-        return current.after(after) && current.before(before);
+        return dropped;
     }
 
-    @Override
-    public Set<String> getAllUsers() {
-        Set<String> users = new HashSet<>();
-        for(int i=0;i<logEntities.size();i++){
-            users.add(logEntities.get(i).getUser());
+    public int getNumberOfUniqueIPs(Date after, Date before) {
+        return cached("getNumberOfUniqueIPs", after, before, () -> {
+            if(distinctPrecision>0){
+                return (int) scan.buckets(epoch.segments, null, lowerBound(after), upperBound(before), this::sketch,
+                        (sketch, store, row) -> sketch.add(store.ipCodes()[row]),
+                        (sketch, rollup, bucket) -> sketch.merge(rollup.ipSketch(bucket)), HyperLogLog::merge).estimate();
+            }
+            return ipCodes(epoch.segments, null, after, before).size();
+        });
+    }
+
+    public Set<String> getUniqueIPs(Date after,Date before) {
+        return cached("getUniqueIPs", after, before, () -> toIps(ipCodes(epoch.segments, null, after, before)));
+    }
+
+    public Set<String> getIPsForUser(String user, Date after, Date before) {
+        return cached("getIPsForUser", after, before, () -> {
+            int userId = users.find(user);
+            if(userId<0){return new HashSet<>();}
+            return toIps(ipCodes(withUser(userId), index -> index.user(userId), after, before));
+        }, user);
+    }
+
+    public Set<String> getIPsForEvent(Event event, Date after, Date before) {
+        return cached("getIPsForEvent", after, before, () -> {
+            if(event==null){return new HashSet<>();}
+            return toIps(ipCodes(epoch.segments, index -> index.event(event), after, before));
+        }, event);
+    }
+
+    public Set<String> getIPsForStatus(Status status,Date after,Date before) {
+        return cached("getIPsForStatus", after, before, () -> {
+            if(status==null){return new HashSet<>();}
+            return toIps(ipCodes(epoch.segments, index -> index.status(status), after, before));
+        }, status);
+    }
+
+    private IntSet ipCodes(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        if(rows!=null){
+            return scan.rows(segments, rows, lowerBound(after), upperBound(before), IntSet::new,
+                    (codes, store, row) -> codes.add(store.ipCodes()[row]), LogParser::union);
+        }
+        return scan.buckets(segments, null, lowerBound(after), upperBound(before), IntSet::new,
+                (codes, store, row) -> codes.add(store.ipCodes()[row]),
+                (codes, rollup, bucket) -> rollup.forEachIp(bucket, codes::add), LogParser::union);
+    }
+
+    private BitSet userIds(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        if(rows!=null){
+            return scan.rows(segments, rows, lowerBound(after), upperBound(before), BitSet::new,
+                    (ids, store, row) -> ids.set(store.userIds()[row]), LogParser::union);
+        }
+        return scan.buckets(segments, null, lowerBound(after), upperBound(before), BitSet::new,
+                (ids, store, row) -> ids.set(store.userIds()[row]),
+                (ids, rollup, bucket) -> rollup.forEachUser(bucket, ids::set), LogParser::union);
+    }
+
+    private Set<Date> dates(Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        return scan.<Set<Date>>rows(epoch.segments, rows, lowerBound(after), upperBound(before), HashSet::new,
+                (set, store, row) -> set.add(new Date(store.times()[row])), LogParser::union);
+    }
+
+    private Set<Event> events(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        if(rows!=null){
+            return toEvents(scan.rows(segments, rows, lowerBound(after), upperBound(before), () -> new int[1],
+                    (mask, store, row) -> mask[0] |= eventBit(store.events()[row]), LogParser::or)[0]);
+        }
+        return toEvents(scan.buckets(segments, null, lowerBound(after), upperBound(before), () -> new int[1],
+                (mask, store, row) -> mask[0] |= eventBit(store.events()[row]), (mask, rollup, bucket) -> {
+                    for (Event event : Event.values()) {
+                        if(rollup.eventCount(bucket, event)>0){
+                            mask[0] |= 1<<event.ordinal();
+                        }
+                    }
+                }, LogParser::or)[0]);
+    }
+
+    /**
+     * The segments that may hold rows of {@code userId} according to their
+     * summaries.
+     */
+    private List<Segment> withUser(int userId) {
+        List<Segment> segments = new ArrayList<>();
+        for(Segment segment : epoch.segments){
+            if(segment.mayContainUser(userId)){
+                segments.add(segment);
+            }
         }
-        return users;
+        return segments;
     }
 
-    @Override
-    public int getNumberOfUsers(Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                set.add(logEntities.get(i).getUser());
+    /**
+     * The segments that may hold rows from {@code ipCode}.
+     */
+    private List<Segment> withIp(int ipCode) {
+        List<Segment> segments = new ArrayList<>();
+        for(Segment segment : epoch.segments){
+            if(segment.mayContainIp(ipCode)){
+                segments.add(segment);
             }
         }
-        return set.size();
+        return segments;
     }
 
-    @Override
-    public int getNumberOfUserEvents(String user, Date after, Date before) {
-        Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)){
-                    set.add(logEntities.get(i).getEvent());
-                }
+    private HyperLogLog sketch() {
+        return new HyperLogLog(distinctPrecision);
+    }
+
+    private static IntSet union(IntSet a, IntSet b) {
+        a.addAll(b);
+        return a;
+    }
+
+    private static BitSet union(BitSet a, BitSet b) {
+        a.or(b);
+        return a;
+    }
+
+    private static <T> Set<T> union(Set<T> a, Set<T> b) {
+        a.addAll(b);
+        return a;
+    }
+
+    private static int[] or(int[] a, int[] b) {
+        a[0] |= b[0];
+        return a;
+    }
+
+    private static int[] sum(int[] a, int[] b) {
+        a[0] += b[0];
+        return a;
+    }
+
+    private static Map<Integer, Integer> sum(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        b.forEach((key, count) -> a.merge(key, count, Integer::sum));
+        return a;
+    }
+
+    /**
+     * Answers a query from the result cache when it is enabled. A result is
+     * only cached if nothing was published while it was computed, and
+     * callers always get their own copy of it.
+     */
+    private <T> T cached(String method, Date after, Date before, Supplier<T> query, Object... arguments) {
+        if(metrics!=null){
+            return metrics.time(method, () -> lookup(method, after, before, query, arguments));
+        }
+        return lookup(method, after, before, query, arguments);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T lookup(String method, Date after, Date before, Supplier<T> query, Object... arguments) {
+        if(resultCache==null){
+            return query.get();
+        }
+        ResultCache.Key key = new ResultCache.Key(method, lowerBound(after), upperBound(before), arguments);
+        long current = epoch.number;
+        ResultCache.Entry entry = resultCache.get(key, current);
+        if(entry!=null){
+            return (T) copy(entry.value);
+        }
+        T result = query.get();
+        if(epoch.number==current){
+            resultCache.put(key, current, copy(result));
+        }
+        return result;
+    }
+
+    private static Object copy(Object value) {
+        if(value instanceof Set){
+            Set<Object> set = new HashSet<>();
+            for (Object element : (Set<?>) value) {
+                set.add(element instanceof Date ? ((Date) element).clone() : element);
             }
+            return set;
+        }
+        if(value instanceof Map){
+            return new HashMap<>((Map<?, ?>) value);
         }
-        return set.size();
+        if(value instanceof Date){
+            return ((Date) value).clone();
+        }
+        return value;
     }
 
-    @Override
-    public Set<String> getUsersForIP(String ip, Date after, Date before) {
+    private Set<String> toIps(IntSet codes) {
         Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getIp().equals(ip)){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
+        for (int code : codes.toArray()) {
+            set.add(ips.get(code));
         }
         return set;
     }
 
-    @Override
-    public Set<String> getLoggedUsers(Date after, Date before) {
+    private Set<String> toUsers(BitSet ids) {
         Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.LOGIN)){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            set.add(users.get(id));
         }
         return set;
     }
+    private long lowerBound(Date after){
+        return after==null ? 0 : after.getTime();
+    }
+    private long upperBound(Date before){
+        return before==null ? Long.MAX_VALUE : before.getTime();
+    }
 
     @Override
-    public Set<String> getDownloadedPluginUsers(Date after, Date before) {
+    public Set<String> getAllUsers() {
         Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.DOWNLOAD_PLUGIN)){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
+        int published = epoch.users;
+        for (int id = 0; id < published; id++) {
+            set.add(users.get(id));
         }
         return set;
     }
 
     @Override
-    public Set<String> getWroteMessageUsers(Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.WRITE_MESSAGE)){
-                    set.add(logEntities.get(i).getUser());
-                }
+    public int getNumberOfUsers(Date after, Date before) {
+        return cached("getNumberOfUsers", after, before, () -> {
+            if(distinctPrecision>0){
+                return (int) scan.buckets(epoch.segments, null, lowerBound(after), upperBound(before), this::sketch,
+                        (sketch, store, row) -> sketch.add(store.userIds()[row]),
+                        (sketch, rollup, bucket) -> sketch.merge(rollup.userSketch(bucket)), HyperLogLog::merge).estimate();
             }
-        }
-        return set;
+            return userIds(epoch.segments, null, after, before).cardinality();
+        });
+    }
+
+    @Override
+    public int getNumberOfUserEvents(String user, Date after, Date before) {
+        return cached("getNumberOfUserEvents", after, before, () -> eventsOfUser(user, after, before).size(), user);
+    }
+
+    @Override
+    public Set<String> getUsersForIP(String ip, Date after, Date before) {
+        return cached("getUsersForIP", after, before, () -> {
+            long ipCode = ips.find(ip);
+            if(ipCode==IpTable.ABSENT){return new HashSet<>();}
+            return toUsers(userIds(withIp((int) ipCode), index -> index.ip((int) ipCode), after, before));
+        }, ip);
+    }
+
+    @Override
+    public Set<String> getLoggedUsers(Date after, Date before) {
+        return cached("getLoggedUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> index.event(Event.LOGIN), after, before)));
+    }
+
+    @Override
+    public Set<String> getDownloadedPluginUsers(Date after, Date before) {
+        return cached("getDownloadedPluginUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> index.event(Event.DOWNLOAD_PLUGIN), after, before)));
+    }
+
+    @Override
+    public Set<String> getWroteMessageUsers(Date after, Date before) {
+        return cached("getWroteMessageUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> index.event(Event.WRITE_MESSAGE), after, before)));
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
-        }
-        return set;
+        return cached("getSolvedTaskUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> index.event(Event.SOLVE_TASK), after, before)));
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)
-                && logEntities.get(i).getEventAdditionalParameter()==task){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
-        }
-        return set;
+        return cached("getSolvedTaskUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> taskRows(index, Event.SOLVE_TASK, task), after, before)), task);
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.DONE_TASK)){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
-        }
-        return set;
+        return cached("getDoneTaskUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> index.event(Event.DONE_TASK), after, before)));
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
-        Set<String> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.DONE_TASK)
-                && logEntities.get(i).getEventAdditionalParameter()==task){
-                    set.add(logEntities.get(i).getUser());
-                }
-            }
-        }
-        return set;
+        return cached("getDoneTaskUsers", after, before,
+                () -> toUsers(userIds(epoch.segments, index -> taskRows(index, Event.DONE_TASK, task), after, before)), task);
+    }
+
+    private static RowBitmap taskRows(LogIndex index, Event event, int task) {
+        return RowBitmap.and(index.event(event), index.task(task));
     }
 
     @Override
     public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
-        Set<Date> res = new HashSet<>();
-        for(int i=0;i<logEntities.size();i++){
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(event)
-                        && logEntities.get(i).getUser().equals(user)){
-                    res.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        return res;
+        return cached("getDatesForUserAndEvent", after, before, () -> datesOfUser(user, event, after, before),
+                user, event);
+    }
+
+    private Set<Date> datesOfUser(String user, Event event, Date after, Date before) {
+        int userId = users.find(user);
+        if(userId<0 || event==null){return new HashSet<>();}
+        return scan.<Set<Date>>run(withUser(userId), null, lowerBound(after), upperBound(before), false, HashSet::new,
+                (set, partition) -> {
+                    long[] times = partition.segment.store().times();
+                    partition.segment.index().forEachOfUser(userId, event, partition.start, partition.end,
+                            row -> set.add(new Date(times[row])));
+                }, LogParser::union);
     }
 
     @Override
     public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getStatus().equals(Status.FAILED)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        return set;
+        return cached("getDatesWhenSomethingFailed", after, before,
+                () -> dates(index -> index.status(Status.FAILED), after, before));
     }
 
     @Override
     public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getStatus().equals(Status.ERROR)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        return set;
+        return cached("getDatesWhenErrorHappened", after, before,
+                () -> dates(index -> index.status(Status.ERROR), after, before));
     }
 
     @Override
     public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.LOGIN)
-                &&logEntities.get(i).getUser().equals(user)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        if(set.size()==0)return null;
-        Date minDate = set.iterator().next();
-        for (Date date:set){
-            if(date.getTime()<minDate.getTime()){
-                minDate=date;
-            }
-        }
-        return minDate;
+        return cached("getDateWhenUserLoggedFirstTime", after, before, () -> {
+            int userId = users.find(user);
+            if(userId<0){return null;}
+            return getFirstDate(userId, Event.LOGIN, -1, after, before);
+        }, user);
     }
 
+    /**
+     * The first {@code SOLVE_TASK} of {@code user} for any task: like the
+     * original implementation, {@code task} is not looked at, so it is not
+     * part of the result cache key either.
+     */
     @Override
     public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)
-                &&logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        if(set.size()==0)return null;
-        Date minDate = set.iterator().next();
-        for(Date date:set){
-            if(date.getTime()<minDate.getTime()){
-                minDate=date;
-            }
-        }
-        return minDate;
+        return cached("getDateWhenUserSolvedTask", after, before, () -> {
+            int userId = users.find(user);
+            if(userId<0){return null;}
+            return getFirstDate(userId, Event.SOLVE_TASK, -1, after, before);
+        }, user);
     }
 
     @Override
     public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)
-                && logEntities.get(i).getEvent().equals(Event.DONE_TASK)
-                &&logEntities.get(i).getEventAdditionalParameter()==task){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        if(set.size()==0)return null;
-        Date minDate = set.iterator().next();
-        for(Date date:set){
-            if(date.getTime()<minDate.getTime()){
-                minDate = date;
-            }
-        }
-        return minDate;
+        return cached("getDateWhenUserDoneTask", after, before, () -> {
+            int userId = users.find(user);
+            if(userId<0 || task<0){return null;}
+            return getFirstDate(userId, Event.DONE_TASK, task, after, before);
+        }, user, task);
+    }
+
+    /**
+     * Earliest row of {@code userId} with {@code event} in the range, or
+     * null; a non negative {@code task} skips rows for other tasks. Each
+     * partition contributes its first match, found by binary search in the
+     * user's timeline.
+     */
+    private Date getFirstDate(int userId, Event event, int task, Date after, Date before) {
+        long[] first = scan.run(withUser(userId), null, lowerBound(after), upperBound(before), false,
+                () -> new long[]{Long.MAX_VALUE}, (min, partition) -> {
+                    LogIndex index = partition.segment.index();
+                    int[] tasks = partition.segment.store().tasks();
+                    int row = index.firstOfUser(userId, event, partition.start, partition.end);
+                    while(row>=0 && task>=0 && tasks[row]!=task){
+                        row = index.firstOfUser(userId, event, row+1, partition.end);
+                    }
+                    if(row>=0){
+                        min[0] = Math.min(min[0], partition.segment.store().times()[row]);
+                    }
+                }, (a, b) -> {
+                    a[0] = Math.min(a[0], b[0]);
+                    return a;
+                });
+        return first[0]==Long.MAX_VALUE ? null : new Date(first[0]);
     }
 
     @Override
     public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)
-                &&logEntities.get(i).getEvent().equals(Event.WRITE_MESSAGE)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        return set;
+        return cached("getDatesWhenUserWroteMessage", after, before,
+                () -> datesOfUser(user, Event.WRITE_MESSAGE, after, before), user);
     }
 
     @Override
     public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
-        Set<Date> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.DOWNLOAD_PLUGIN)
-                && logEntities.get(i).getUser().equals(user)){
-                    set.add(logEntities.get(i).getDate());
-                }
-            }
-        }
-        return set;
+        return cached("getDatesWhenUserDownloadedPlugin", after, before,
+                () -> datesOfUser(user, Event.DOWNLOAD_PLUGIN, after, before), user);
     }
 
     @Override
     public int getNumberOfAllEvents(Date after, Date before) {
-        return getAllEvents(after,before).size();
+        return cached("getNumberOfAllEvents", after, before,
+                () -> events(epoch.segments, null, after, before).size());
     }
 
     @Override
     public Set<Event> getAllEvents(Date after, Date before) {
-        Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                set.add(logEntities.get(i).getEvent());
-            }
-        }
-        return set;
+        return cached("getAllEvents", after, before, () -> events(epoch.segments, null, after, before));
     }
 
     @Override
     public Set<Event> getEventsForIP(String ip, Date after, Date before) {
-        Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if (logEntities.get(i).getIp().equals(ip)){
-                    set.add(logEntities.get(i).getEvent());
-                }
-            }
-        }
-        return set;
+        return cached("getEventsForIP", after, before, () -> {
+            long ipCode = ips.find(ip);
+            if(ipCode==IpTable.ABSENT){return new HashSet<>();}
+            return events(withIp((int) ipCode), index -> index.ip((int) ipCode), after, before);
+        }, ip);
     }
 
     @Override
     public Set<Event> getEventsForUser(String user, Date after, Date before) {
-        Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getUser().equals(user)){
-                    set.add(logEntities.get(i).getEvent());
-                }
-            }
-        }
-        return set;
+        return cached("getEventsForUser", after, before, () -> eventsOfUser(user, after, before), user);
+    }
+
+    private Set<Event> eventsOfUser(String user, Date after, Date before) {
+        int userId = users.find(user);
+        if(userId<0){return new HashSet<>();}
+        return events(withUser(userId), index -> index.user(userId), after, before);
     }
 
     @Override
     public Set<Event> getFailedEvents(Date after, Date before) {
-        Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getStatus().equals(Status.FAILED)){
-                    set.add(logEntities.get(i).getEvent());
-                }
-            }
-        }
-        return set;
+        return cached("getFailedEvents", after, before,
+                () -> events(epoch.segments, index -> index.status(Status.FAILED), after, before));
     }
 
     @Override
     public Set<Event> getErrorEvents(Date after, Date before) {
+        return cached("getErrorEvents", after, before,
+                () -> events(epoch.segments, index -> index.status(Status.ERROR), after, before));
+    }
+
+    private static int eventBit(byte event) {
+        return event==LogStore.NONE ? 0 : 1<<event;
+    }
+
+    private static Set<Event> toEvents(int mask) {
         Set<Event> set = new HashSet<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getStatus().equals(Status.ERROR)){
-                    set.add(logEntities.get(i).getEvent());
-                }
+        for (Event event : Event.values()) {
+            if((mask & 1<<event.ordinal())!=0){
+                set.add(event);
             }
         }
         return set;
@@ -494,245 +829,278 @@ public class LogParser implements IPQuery, UserQuery,DateQuery, EventQuery, QLQu
 
     @Override
     public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
-        int quantity =0;
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if(logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)
-                && logEntities.get(i).getEventAdditionalParameter()==task){
-                    quantity++;
-                }
-            }
-        }
-        return quantity;
+        return cached("getNumberOfAttemptToSolveTask", after, before,
+                () -> countTask(Event.SOLVE_TASK, task, after, before), task);
     }
 
     @Override
     public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
-        int quantity =0;
-        for (int i=0;i<logEntities.size();i++){
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if (logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)
-                && logEntities.get(i).getEventAdditionalParameter()==task){
-                    quantity++;
-                }
-            }
-        }
-        return quantity;
+        return cached("getNumberOfSuccessfulAttemptToSolveTask", after, before,
+                () -> countTask(Event.SOLVE_TASK, task, after, before), task);
+    }
+
+    private int countTask(Event event, int task, Date after, Date before) {
+        return scan.buckets(epoch.segments, index -> taskRows(index, event, task), lowerBound(after), upperBound(before),
+                () -> new int[1], (quantity, store, row) -> quantity[0]++,
+                (quantity, rollup, bucket) -> quantity[0] += rollup.taskCount(bucket, event, task), LogParser::sum)[0];
     }
 
     @Override
     public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
-        Map<Integer,Integer> map = new HashMap<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if (logEntities.get(i).getEvent().equals(Event.SOLVE_TASK)){
-                int task = logEntities.get(i).getEventAdditionalParameter();
-                Integer count = map.containsKey(task) ? map.get(task) :0;
-                map.put(task,count+1);
-                }
-            }
-        }
-        return map;
+        return cached("getAllSolvedTasksAndTheirNumber", after, before,
+                () -> getTasksAndTheirNumber(Event.SOLVE_TASK, after, before));
     }
 
     @Override
     public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
-        Map<Integer, Integer> map = new HashMap<>();
-        for (int i = 0; i < logEntities.size(); i++) {
-            if(dateBetweenDates(logEntities.get(i).getDate(),after,before)){
-                if (logEntities.get(i).getEvent().equals(Event.DONE_TASK)){
-                    int task = logEntities.get(i).getEventAdditionalParameter();
-                    Integer count = map.containsKey(task) ? map.get(task):0;
-                    map.put(task,count+1);
-                }
-            }
-        }
-        return map;
+        return cached("getAllDoneTasksAndTheirNumber", after, before,
+                () -> getTasksAndTheirNumber(Event.DONE_TASK, after, before));
     }
 
+    private Map<Integer, Integer> getTasksAndTheirNumber(Event event, Date after, Date before) {
+        return scan.<Map<Integer, Integer>>buckets(epoch.segments, index -> index.event(event), lowerBound(after), upperBound(before),
+                HashMap::new, (map, store, row) -> map.merge(store.tasks()[row], 1, Integer::sum),
+                (map, rollup, bucket) -> rollup.forEachTask(bucket, event,
+                        (task, count) -> map.merge(task, count, Integer::sum)), LogParser::sum);
+    }
 
     @Override
-    public Set<Object> execute(String query) {
-        Set<Object> set = new HashSet<>();
-        String field1;
-        String field2 = null;
-        String value1 =null;
-        Date after = null;
-        Date before =null;
-        Pattern pattern = Pattern.compile("get (ip|user|date|event|status)"
-                + "( for (ip|user|date|event|status) = \"(.*?)\")?"
-                + "( and date between \"(.*?)\" and \"(.*?)\")?");
-        Matcher matcher = pattern.matcher(query);
-        matcher.find();
-        field1 = matcher.group(1);
-        if(matcher.group(2)!=null){
-            field1 = matcher.group(3);
-            value1 = matcher.group(4);
-            if(matcher.group(5)!=null){
-                try{
-                    after = simpleDateFormat.parse(matcher.group(6));
-                    before = simpleDateFormat.parse(matcher.group(7));
-                } catch (ParseException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        if(field2 !=null && value1!=null){
-            for(int i=0;i<logEntities.size();i++) {
-                if (dateBetweenDates(logEntities.get(i).getDate(), after, before)) {
-                    if (field2.equals("date")) {
-                        try {
-                            if (logEntities.get(i).getDate().getTime() == simpleDateFormat.parse(value1).getTime()) {
-                                set.add(getCurrentValue(logEntities.get(i), field1));
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    } else {
-                        if (value1.equals(getCurrentValue(logEntities.get(i), field2).toString())) {
-                            set.add(getCurrentValue(logEntities.get(i), field1));
-                        }
-                    }
-                }
-            }
-        }else {
-            for (int i = 0; i < logEntities.size(); i++) {
-                set.add(getCurrentValue(logEntities.get(i), field1));
-            }
-        }
-        return set;
+    public Stream<String> streamIPs(Date after, Date before) {
+        return ipStream(epoch.segments, null, after, before);
     }
-    private Object getCurrentValue(LogEntity entity, String field){
-        Object value = null;
-        switch (field) {
-            case "ip":{
-                Command method = new GetIpCommand(entity);
-                value = method.execute();
-                break;
-        }
-            case "user":{
-                Command method = new GetUserCommand(entity);
-                value = method.execute();
-                break;
-            }
-            case "date":{
-                Command method = new GetDateCommand(entity);
-                value = method.execute();
-                break;
-            }
-            case "event":{
-                Command method = new GetEventCommand(entity);
-                value = method.execute();
-                break;
-            }
-            case "status":{
-                Command method = new GetStatusCommand(entity);
-                value = method.execute();
-                break;
-            }
 
-        }
-        return value;
+    @Override
+    public Stream<String> streamIPsForUser(String user, Date after, Date before) {
+        int userId = users.find(user);
+        if(userId<0){return Stream.empty();}
+        return ipStream(withUser(userId), index -> index.user(userId), after, before);
     }
 
-    private class LogEntity {
-        private String ip;
-        private String user;
-        private Date date;
-        private Event event;
-        private int eventAdditionalParameter;
-        private Status status;
-        public LogEntity(String ip, String user, Date date, Event event, int eventAdditionalParameter, Status status) {
-            this.ip=ip;
-            this.user = user;
-            this.date = date;
-            this.event = event;
-            this.eventAdditionalParameter = eventAdditionalParameter;
-            this.status = status;
-        }
+    @Override
+    public Stream<String> streamIPsForEvent(Event event, Date after, Date before) {
+        if(event==null){return Stream.empty();}
+        return ipStream(epoch.segments, index -> index.event(event), after, before);
+    }
 
-        public String getIp() {
-            return ip;
-        }
+    @Override
+    public Stream<String> streamIPsForStatus(Status status, Date after, Date before) {
+        if(status==null){return Stream.empty();}
+        return ipStream(epoch.segments, index -> index.status(status), after, before);
+    }
 
-        public String getUser() {
-            return user;
-        }
+    @Override
+    public Stream<String> streamUsers(Date after, Date before) {
+        return userStream(epoch.segments, null, after, before);
+    }
 
-        public Date getDate() {
-            return date;
-        }
+    @Override
+    public Stream<String> streamUsersForIP(String ip, Date after, Date before) {
+        long ipCode = ips.find(ip);
+        if(ipCode==IpTable.ABSENT){return Stream.empty();}
+        return userStream(withIp((int) ipCode), index -> index.ip((int) ipCode), after, before);
+    }
 
-        public Event getEvent() {
-            return event;
-        }
+    @Override
+    public Stream<String> streamUsersForEvent(Event event, Date after, Date before) {
+        if(event==null){return Stream.empty();}
+        return userStream(epoch.segments, index -> index.event(event), after, before);
+    }
 
-        public int getEventAdditionalParameter() {
-            return eventAdditionalParameter;
-        }
+    @Override
+    public Stream<Date> streamDatesForUserAndEvent(String user, Event event, Date after, Date before) {
+        int userId = users.find(user);
+        if(userId<0 || event==null){return Stream.empty();}
+        return dateStream(withUser(userId), index -> RowBitmap.and(index.user(userId), index.event(event)), after, before);
+    }
 
-        public Status getStatus() {
-            return status;
-        }
+    @Override
+    public Stream<Date> streamDatesForStatus(Status status, Date after, Date before) {
+        if(status==null){return Stream.empty();}
+        return dateStream(epoch.segments, index -> index.status(status), after, before);
+    }
+
+    @Override
+    public Stream<Event> streamEvents(Date after, Date before) {
+        return eventStream(epoch.segments, null, after, before);
     }
-    private abstract class Command {
-        protected LogEntity logEntity;
 
-        abstract Object execute();
+    @Override
+    public Stream<Event> streamEventsForIP(String ip, Date after, Date before) {
+        long ipCode = ips.find(ip);
+        if(ipCode==IpTable.ABSENT){return Stream.empty();}
+        return eventStream(withIp((int) ipCode), index -> index.ip((int) ipCode), after, before);
+    }
+
+    @Override
+    public Stream<Event> streamEventsForUser(String user, Date after, Date before) {
+        int userId = users.find(user);
+        if(userId<0){return Stream.empty();}
+        return eventStream(withUser(userId), index -> index.user(userId), after, before);
+    }
+
+    @Override
+    public Stream<Event> streamEventsForStatus(Status status, Date after, Date before) {
+        if(status==null){return Stream.empty();}
+        return eventStream(epoch.segments, index -> index.status(status), after, before);
+    }
+
+    private Stream<String> ipStream(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        IntSet seen = new IntSet();
+        return stream(segments, rows, after, before, () -> false,
+                (store, row) -> seen.add(store.ipCodes()[row]) ? ips.get(store.ipCodes()[row]) : null);
+    }
+
+    /**
+     * Ends early once every known user has been seen.
+     */
+    private Stream<String> userStream(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        BitSet seen = new BitSet();
+        int[] count = new int[1];
+        int total = epoch.users;
+        return stream(segments, rows, after, before, () -> count[0]==total, (store, row) -> {
+            int id = store.userIds()[row];
+            if(seen.get(id)){
+                return null;
+            }
+            seen.set(id);
+            count[0]++;
+            return users.get(id);
+        });
+    }
+
+    private Stream<Date> dateStream(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        long[] last = {Long.MIN_VALUE};
+        return stream(segments, rows, after, before, () -> false, (store, row) -> {
+            long time = store.times()[row];
+            if(time==last[0]){
+                return null;
+            }
+            last[0] = time;
+            return new Date(time);
+        });
     }
 
-    private class GetIpCommand extends Command {
-        public GetIpCommand(LogEntity logEntity) {
-            this.logEntity = logEntity;
+    /**
+     * Ends early once every event has been seen.
+     */
+    private Stream<Event> eventStream(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before) {
+        int all = (1<<Event.values().length)-1;
+        int[] mask = new int[1];
+        return stream(segments, rows, after, before, () -> mask[0]==all, (store, row) -> {
+            int bit = eventBit(store.events()[row]);
+            if((mask[0] & bit)!=0 || bit==0){
+                return null;
+            }
+            mask[0] |= bit;
+            return Event.values()[store.events()[row]];
+        });
+    }
+
+    /**
+     * Streams the non null values {@code value} maps the rows to, reading
+     * the rows in time order only as far as the stream is consumed or until
+     * {@code done} is true.
+     */
+    private <T> Stream<T> stream(List<Segment> segments, Function<LogIndex, RowBitmap> rows, Date after, Date before, BooleanSupplier done,
+                                 RowFunction<T> value) {
+        RowCursor cursor = new RowCursor(segments, rows, lowerBound(after), upperBound(before));
+        Iterator<T> iterator = new Iterator<T>() {
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                while(next==null && !done.getAsBoolean() && cursor.next()){
+                    next = value.apply(cursor.store(), cursor.row());
+                }
+                return next!=null;
+            }
+
+            @Override
+            public T next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                T result = next;
+                next = null;
+                return result;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private interface RowFunction<T> {
+        T apply(LogStore store, int row);
+    }
+
+    /**
+     * Starts a batch of queries over the same date range that are answered
+     * together by a single scan, see {@link QueryBatch}.
+     */
+    public QueryBatch batch(Date after, Date before) {
+        return new QueryBatch(() -> epoch.segments, ips, users, lowerBound(after), upperBound(before));
+    }
+
+    @Override
+    public Set<Object> execute(String query) {
+        if(metrics!=null){
+            return metrics.time("execute", () -> plan(query).execute(epoch.segments));
         }
+        return plan(query).execute(epoch.segments);
+    }
 
+    private QueryPlan plan(String query) {
+        return plans.computeIfAbsent(query, text -> QueryPlan.compile(text, ips, users));
+    }
+
+    /**
+     * The {@link LogParserMXBean} of this parser; every attribute takes a
+     * new snapshot.
+     */
+    private final class Management implements LogParserMXBean {
         @Override
-        Object execute() {
-            return logEntity.getIp();
+        public long getEpoch() {
+            return LogParser.this.getEpoch();
         }
-    }
 
-    private class GetUserCommand extends Command {
-        public GetUserCommand(LogEntity logEntity) {
-            this.logEntity = logEntity;
+        @Override
+        public long getRows() {
+            return getMetrics().getRows();
         }
 
         @Override
-        Object execute() {
-            return logEntity.getUser();
+        public long getMappedRows() {
+            return getMetrics().getMappedRows();
         }
-    }
 
-    private class GetDateCommand extends Command {
-        public GetDateCommand(LogEntity logEntity) {
-            this.logEntity = logEntity;
+        @Override
+        public int getSegments() {
+            return epoch.segments.size();
         }
 
         @Override
-        Object execute() {
-            return logEntity.getDate();
+        public long getHeapBytes() {
+            return getMetrics().getHeapBytes();
         }
-    }
 
-    private class GetEventCommand extends Command {
-        public GetEventCommand(LogEntity logEntity) {
-            this.logEntity = logEntity;
+        @Override
+        public long getMappedBytes() {
+            return getMetrics().getMappedBytes();
         }
 
         @Override
-        Object execute() {
-            return logEntity.getEvent();
+        public Map<String, FileMetrics> getFiles() {
+            return metrics.files();
         }
-    }
 
-    private class GetStatusCommand extends Command {
-        public GetStatusCommand(LogEntity logEntity) {
-            this.logEntity = logEntity;
+        @Override
+        public Map<String, QueryMetrics> getQueries() {
+            return metrics.queries();
         }
 
         @Override
-        Object execute() {
-            return logEntity.getStatus();
+        public CacheStats getResultCache() {
+            return getResultCacheStats();
         }
     }
 }
\ No newline at end of file
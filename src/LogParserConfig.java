@@ -0,0 +1,324 @@
+import java.nio.file.Path;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Tuning knobs for {@link LogParser}. The defaults reproduce the original
+ * single threaded behaviour.
+ */
+public class LogParserConfig {
+    private int parallelism = 1;
+    private int queryParallelism = 1;
+    private int partitionSize = 64 * 1024;
+    private long splitSize = 64L * 1024 * 1024;
+    private boolean memoryMapped;
+    private long followInterval;
+    private boolean snapshot;
+    private Path spillDirectory;
+    private int spillThreshold = 1 << 20;
+    private int blockCacheSize = 256;
+    private int planCacheSize = 64;
+    private int resultCacheSize;
+    private double distinctError;
+    private ChronoUnit[] rollups = {};
+    private ChronoUnit timePartition;
+    private boolean metricsEnabled;
+    private int quarantineSize;
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of worker threads used to read log files. Values above one read
+     * files (and ranges of large files) concurrently on a fork-join pool.
+     */
+    public LogParserConfig setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    /**
+     * Number of worker threads used to answer queries. Values above one
+     * scan partitions of the rows concurrently on a fork-join pool owned by
+     * the parser, which {@link LogParser#close()} shuts down.
+     */
+    public LogParserConfig setQueryParallelism(int queryParallelism) {
+        if (queryParallelism < 1) {
+            throw new IllegalArgumentException("queryParallelism must be positive: " + queryParallelism);
+        }
+        this.queryParallelism = queryParallelism;
+        return this;
+    }
+
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * Number of rows per partition of a parallel query scan. Partitions of
+     * counting queries are extended to the next rollup bucket boundary.
+     */
+    public LogParserConfig setPartitionSize(int partitionSize) {
+        if (partitionSize < 1) {
+            throw new IllegalArgumentException("partitionSize must be positive: " + partitionSize);
+        }
+        this.partitionSize = partitionSize;
+        return this;
+    }
+
+    public long getSplitSize() {
+        return splitSize;
+    }
+
+    /**
+     * Files larger than this many bytes are cut into line aligned ranges
+     * that are parsed independently.
+     */
+    public LogParserConfig setSplitSize(long splitSize) {
+        if (splitSize < 1) {
+            throw new IllegalArgumentException("splitSize must be positive: " + splitSize);
+        }
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Parses log files by memory mapping them and tokenizing the raw bytes
+     * instead of decoding every line into strings.
+     */
+    public LogParserConfig setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    public long getFollowInterval() {
+        return followInterval;
+    }
+
+    /**
+     * When positive, the log directory is polled every this many
+     * milliseconds and lines appended to its files are added to the running
+     * parser. Zero (the default) reads the directory once.
+     */
+    public LogParserConfig setFollowInterval(long followInterval) {
+        if (followInterval < 0) {
+            throw new IllegalArgumentException("followInterval must not be negative: " + followInterval);
+        }
+        this.followInterval = followInterval;
+        return this;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Keeps a binary snapshot of the parsed logs in the log directory and
+     * loads it on startup, so that only files changed since the last run
+     * are parsed again. Not used in follow mode.
+     */
+    public LogParserConfig setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * When set, rows are moved out of the heap into compressed, memory
+     * mapped files in this directory once enough of them have been
+     * published, so that logs larger than the heap can be queried. The
+     * files are unlinked as soon as they are mapped. Null (the default)
+     * keeps all rows on the heap.
+     */
+    public LogParserConfig setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Number of rows collected on the heap before they are written to a
+     * spill file. Only used with a spill directory.
+     */
+    public LogParserConfig setSpillThreshold(int spillThreshold) {
+        if (spillThreshold < 1) {
+            throw new IllegalArgumentException("spillThreshold must be positive: " + spillThreshold);
+        }
+        this.spillThreshold = spillThreshold;
+        return this;
+    }
+
+    public int getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    /**
+     * Number of decoded spill file blocks of {@value SegmentFile#BLOCK_ROWS}
+     * rows kept on the heap; the least recently used one is dropped first
+     * and decoded again when a query needs it. Only used with a spill
+     * directory.
+     */
+    public LogParserConfig setBlockCacheSize(int blockCacheSize) {
+        if (blockCacheSize < 1) {
+            throw new IllegalArgumentException("blockCacheSize must be positive: " + blockCacheSize);
+        }
+        this.blockCacheSize = blockCacheSize;
+        return this;
+    }
+
+    public int getPlanCacheSize() {
+        return planCacheSize;
+    }
+
+    /**
+     * Number of compiled QL queries kept for reuse by
+     * {@link LogParser#execute(String)}; the least recently used one is
+     * dropped first. Zero disables the cache.
+     */
+    public LogParserConfig setPlanCacheSize(int planCacheSize) {
+        if (planCacheSize < 0) {
+            throw new IllegalArgumentException("planCacheSize must not be negative: " + planCacheSize);
+        }
+        this.planCacheSize = planCacheSize;
+        return this;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Number of query results kept for reuse; the least recently used one is
+     * dropped first. A cached result stays valid while lines published later
+     * all lie at or after the end of its window, so results for historical
+     * windows survive new lines. Zero (the default) disables the cache.
+     */
+    public LogParserConfig setResultCacheSize(int resultCacheSize) {
+        if (resultCacheSize < 0) {
+            throw new IllegalArgumentException("resultCacheSize must not be negative: " + resultCacheSize);
+        }
+        this.resultCacheSize = resultCacheSize;
+        return this;
+    }
+
+    public double getDistinctError() {
+        return distinctError;
+    }
+
+    /**
+     * When positive, {@link LogParser#getNumberOfUniqueIPs} and
+     * {@link LogParser#getNumberOfUsers} are estimated with HyperLogLog
+     * sketches of this relative standard error instead of being counted
+     * exactly; a sketch takes {@code (1.04 / distinctError)^2} bytes,
+     * rounded up to a power of two. Every rollup bucket then keeps two
+     * sketches, see {@link #setRollups}. Zero (the default) counts exactly.
+     */
+    public LogParserConfig setDistinctError(double distinctError) {
+        if (distinctError != 0 && !(distinctError >= 1.04 / 256 && distinctError < 1)) {
+            throw new IllegalArgumentException("distinctError must be zero or between 0.0041 and 1: " + distinctError);
+        }
+        this.distinctError = distinctError;
+        return this;
+    }
+
+    public ChronoUnit[] getRollups() {
+        return rollups.clone();
+    }
+
+    /**
+     * Bucket widths of the rollups kept for counting queries: any of
+     * {@code MINUTES}, {@code HOURS} and {@code DAYS}. A date range is
+     * answered from the whole buckets it covers, widest first, and only the
+     * rows at its edges are scanned. Each rollup takes a few ints per
+     * bucket plus the distinct users and IPs of buckets that have at most
+     * a thousand or so of each, and two sketches per bucket if
+     * {@link #setDistinctError} is set, of at most four bytes per distinct
+     * value. None by default.
+     */
+    public LogParserConfig setRollups(ChronoUnit... rollups) {
+        for (ChronoUnit unit : rollups) {
+            if (unit != ChronoUnit.MINUTES && unit != ChronoUnit.HOURS && unit != ChronoUnit.DAYS) {
+                throw new IllegalArgumentException("unsupported rollup unit: " + unit);
+            }
+        }
+        this.rollups = Arrays.stream(rollups).distinct()
+                .sorted(Comparator.comparing(ChronoUnit::getDuration).reversed())
+                .toArray(ChronoUnit[]::new);
+        return this;
+    }
+
+    public ChronoUnit getTimePartition() {
+        return timePartition;
+    }
+
+    /**
+     * Keeps the rows of each {@code HOURS} or {@code DAYS} period in
+     * segments of their own, which are never merged with other periods.
+     * Every segment knows its first and last time and which users and IPs
+     * it holds, so queries skip the periods outside their date range
+     * without touching their rows, and
+     * {@link LogParser#dropPartitionsBefore} can discard old periods as a
+     * whole. Null (the default) merges segments by size only.
+     */
+    public LogParserConfig setTimePartition(ChronoUnit timePartition) {
+        if (timePartition != null && timePartition != ChronoUnit.HOURS && timePartition != ChronoUnit.DAYS) {
+            throw new IllegalArgumentException("unsupported time partition unit: " + timePartition);
+        }
+        this.timePartition = timePartition;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Counts lines parsed and rejected per file and times every query,
+     * see {@link LogParser#getMetrics()}, and registers a
+     * {@link LogParserMXBean} with the platform MBean server until the
+     * parser is closed. Off by default, when parsing and queries take no
+     * timestamps and touch no shared counters; each parsed range still
+     * counts its own lines, which costs an increment per line.
+     */
+    public LogParserConfig setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public int getQuarantineSize() {
+        return quarantineSize;
+    }
+
+    /**
+     * Number of dropped lines, and of lines stored without their date or
+     * status, kept with their file, offset and reason until
+     * {@link LogParser#drainQuarantine()} takes them; lines rejected while
+     * it is full are only counted. Zero (the default) keeps none.
+     */
+    public LogParserConfig setQuarantineSize(int quarantineSize) {
+        if (quarantineSize < 0) {
+            throw new IllegalArgumentException("quarantineSize must not be negative: " + quarantineSize);
+        }
+        this.quarantineSize = quarantineSize;
+        return this;
+    }
+}
\ No newline at end of file
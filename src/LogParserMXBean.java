@@ -0,0 +1,27 @@
+import java.util.Map;
+
+/**
+ * Management interface of a {@link LogParser}, registered with the
+ * platform MBean server under {@code LogParser:type=LogParser} while
+ * metrics are enabled. Every attribute reads a fresh
+ * {@link MetricsSnapshot}.
+ */
+public interface LogParserMXBean {
+    long getEpoch();
+
+    long getRows();
+
+    long getMappedRows();
+
+    int getSegments();
+
+    long getHeapBytes();
+
+    long getMappedBytes();
+
+    Map<String, FileMetrics> getFiles();
+
+    Map<String, QueryMetrics> getQueries();
+
+    CacheStats getResultCache();
+}
\ No newline at end of file
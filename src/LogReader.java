@@ -0,0 +1,706 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Reads every {@code .log} and {@code .log.gz} file of a directory. Files
+ * are cut into line aligned byte ranges which are parsed either one after
+ * another or concurrently on a fork-join pool. Compressed files are
+ * inflated as a stream while they are parsed, one block ahead of the
+ * parser on a second worker when there is a spare processor, even if
+ * ranges are read one after another. BGZF files are cut at member
+ * boundaries instead, and each range takes the lines that start in it.
+ * Parsed ranges are always handed to the sink in file name order, then
+ * range order, so the result does not depend on the level of parallelism.
+ */
+class LogReader {
+    private final LogParserConfig config;
+    private final Metrics metrics;
+    private final Quarantine quarantine;
+
+    /**
+     * @param metrics    where the parse counters of every range are added, or
+     *                   null
+     * @param quarantine where the rejected lines of every range are added,
+     *                   or null
+     */
+    LogReader(LogParserConfig config, Metrics metrics, Quarantine quarantine) {
+        this.config = config;
+        this.metrics = metrics;
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * Parses every log file of {@code logDir}, see {@link #read(List, BiConsumer)}.
+     */
+    Map<Path, IOException> read(Path logDir, Consumer<LogStore> sink) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        for (Path file : listLogFiles(logDir)) {
+            ranges.add(new Range(file, 0, Files.size(file)));
+        }
+        return read(ranges, sink);
+    }
+
+    /**
+     * Parses the given byte ranges, which must start at a line boundary, and
+     * hands the results to {@code sink} in list order.
+     */
+    Map<Path, IOException> read(List<Range> ranges, Consumer<LogStore> sink) {
+        return read(ranges, (file, store) -> sink.accept(store));
+    }
+
+    /**
+     * Like {@link #read(List, Consumer)}, but also tells the sink which file
+     * each parsed range came from. A range that can not be read is skipped
+     * and the others are still parsed; returns the first failure of every
+     * file that had one, in file order.
+     */
+    Map<Path, IOException> read(List<Range> ranges, BiConsumer<Path, LogStore> sink) {
+        Map<Path, IOException> failures = new LinkedHashMap<>();
+        List<RangeTask> tasks = new ArrayList<>();
+        for (Range range : ranges) {
+            try {
+                split(range, tasks);
+            } catch (IOException e) {
+                failures.putIfAbsent(range.file, e);
+            }
+        }
+        boolean pipelined = tasks.size() == 1 && tasks.get(0).compressed;
+        if (config.getParallelism() <= 1 || tasks.size() <= 1 && !pipelined) {
+            ForkJoinPool inflater = null;
+            try {
+                for (RangeTask task : tasks) {
+                    LogStore store;
+                    try {
+                        if (task.compressed && Runtime.getRuntime().availableProcessors() > 1) {
+                            inflater = inflater != null ? inflater : new ForkJoinPool(2);
+                            store = inflater.invoke(task);
+                        } else {
+                            store = task.readRange();
+                        }
+                    } catch (IOException e) {
+                        failures.putIfAbsent(task.file, e);
+                        continue;
+                    } catch (UncheckedIOException e) {
+                        failures.putIfAbsent(task.file, e.getCause());
+                        continue;
+                    }
+                    report(task);
+                    sink.accept(task.file, store);
+                }
+            } finally {
+                if (inflater != null) {
+                    inflater.shutdownNow();
+                }
+            }
+            return sorted(ranges, failures);
+        }
+        ForkJoinPool pool = new ForkJoinPool(config.getParallelism());
+        try {
+            for (RangeTask task : tasks) {
+                pool.execute(task);
+            }
+            for (RangeTask task : tasks) {
+                LogStore store;
+                try {
+                    store = task.join();
+                } catch (UncheckedIOException e) {
+                    failures.putIfAbsent(task.file, e.getCause());
+                    continue;
+                }
+                report(task);
+                sink.accept(task.file, store);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return sorted(ranges, failures);
+    }
+
+    private static Map<Path, IOException> sorted(List<Range> ranges, Map<Path, IOException> failures) {
+        if (failures.size() <= 1) {
+            return failures;
+        }
+        Map<Path, IOException> sorted = new LinkedHashMap<>();
+        for (Range range : ranges) {
+            IOException failure = failures.get(range.file);
+            if (failure != null) {
+                sorted.putIfAbsent(range.file, failure);
+            }
+        }
+        return sorted;
+    }
+
+    private void report(RangeTask task) {
+        if (metrics != null) {
+            metrics.parsed(task.file, task.lines, task.bytes, task.nanos, task.failures);
+        }
+        if (quarantine != null) {
+            quarantine.addAll(task.rejected);
+        }
+    }
+
+    List<Path> listLogFiles(Path logDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
+            for (Path file : directoryStream) {
+                String name = file.toString().toLowerCase();
+                if (name.endsWith(".log") || GzipInput.isCompressed(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private void split(Range range, List<RangeTask> tasks) throws IOException {
+        if (GzipInput.isCompressed(range.file)) {
+            splitCompressed(range, tasks);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(range.file, StandardOpenOption.READ)) {
+            long splitSize = config.isMemoryMapped()
+                    ? Math.min(config.getSplitSize(), Integer.MAX_VALUE)
+                    : config.getSplitSize();
+            long start = range.start;
+            while (start < range.end) {
+                long end = start + splitSize >= range.end
+                        ? range.end
+                        : alignToLine(channel, start + splitSize, range.end);
+                tasks.add(new RangeTask(range.file, start, end, config.isMemoryMapped(), metrics != null, quarantineSize()));
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Cuts a BGZF file into runs of members of about the split size. Each
+     * task owns the lines that start in the text of its members and reads on
+     * into the following members to finish its last line. Other gzip files
+     * are read as one stream.
+     */
+    private void splitCompressed(Range range, List<RangeTask> tasks) throws IOException {
+        if (range.length >= 0) {
+            tasks.add(new RangeTask(range.file, range.start, range.end, range.skip, range.length, -1, 0,
+                    config.isMemoryMapped(), metrics != null, quarantineSize()));
+            return;
+        }
+        GzipInput.Members members;
+        try (FileChannel channel = FileChannel.open(range.file, StandardOpenOption.READ)) {
+            members = GzipInput.members(channel, range.start, range.end);
+        }
+        if (members == null || members.count() == 0) {
+            tasks.add(new RangeTask(range.file, range.start, range.end, 0, Long.MAX_VALUE, -1, 0,
+                    config.isMemoryMapped(), metrics != null, quarantineSize()));
+            return;
+        }
+        int first = 0;
+        long text = 0;
+        while (first < members.count()) {
+            int last = first;
+            long length = 0;
+            do {
+                length += Integer.toUnsignedLong(members.sizes[last++]);
+            } while (last < members.count() && members.offsets[last] - members.offsets[first] < config.getSplitSize());
+            tasks.add(new RangeTask(range.file, members.offsets[first], range.end, 0, length,
+                    first == 0 ? -1 : members.offsets[first - 1], text, config.isMemoryMapped(), metrics != null, quarantineSize()));
+            text += length;
+            first = last;
+        }
+    }
+
+    private int quarantineSize() {
+        return quarantine == null ? 0 : quarantine.capacity();
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after {@code pos}.
+     */
+    static long alignToLine(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = pos - 1;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the offset just past the last newline in {@code [from, size)},
+     * or {@code from} if that part of the file holds no complete line.
+     */
+    static long lastLineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long end = size;
+        while (end > from) {
+            long start = Math.max(from, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            int read = 0;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, start + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return from;
+    }
+
+    /**
+     * A part of a log file, from a line start up to {@code end}.
+     */
+    static class Range {
+        final Path file;
+        final long start;
+        final long end;
+        final long skip;
+        final long length;
+
+        Range(Path file, long start, long end) {
+            this(file, start, end, 0, -1);
+        }
+
+        /**
+         * The lines of a compressed file that start in the {@code length}
+         * inflated bytes after the first {@code skip} inflated bytes of the
+         * members from {@code start} to {@code end}. It is read as one piece.
+         */
+        Range(Path file, long start, long end, long skip, long length) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.skip = skip;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Parses the lines of one byte range. Each task owns its own
+     * {@link TimestampParser} because the parser caches the current day.
+     * Lines are validated field by field without exceptions: a line with a
+     * bad field count, event or task is dropped, one with a bad date or
+     * status is stored with the value missing, and either is kept as a
+     * {@link RejectedLine} while there is room in the quarantine. The task
+     * counts what it parsed, by {@link FileMetrics} field for the failures,
+     * in fields of its own that are read once it is done; only a timed task
+     * takes timestamps.
+     */
+    static class RangeTask extends RecursiveTask<LogStore> {
+        private static final long serialVersionUID = 1L;
+        private static final int CHUNK_SIZE = 1 << 20;
+        private static final Event[] EVENTS = Event.values();
+
+        private final Path file;
+        private final long start;
+        private final long end;
+        private final boolean memoryMapped;
+        private final boolean compressed;
+        private final long skip;
+        private final long length;
+        private final long previous;
+        private final long text;
+        private final boolean timed;
+        private final int quarantineSize;
+        private final TimestampParser timestampParser = new TimestampParser();
+        private final long[] failures = new long[FileMetrics.FAILURE_FIELDS];
+        private final List<RejectedLine> rejected = new ArrayList<>();
+        private long lines;
+        private long bytes;
+        private long nanos;
+
+        RangeTask(Path file, long start, long end, boolean memoryMapped, boolean timed, int quarantineSize) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.memoryMapped = memoryMapped;
+            this.compressed = false;
+            this.skip = 0;
+            this.length = end - start;
+            this.previous = -1;
+            this.text = start;
+            this.timed = timed;
+            this.quarantineSize = quarantineSize;
+        }
+
+        /**
+         * A run of gzip members starting at {@code start}, of which the
+         * lines starting in the {@code length} inflated bytes after the
+         * first {@code skip} are parsed; the input may be read on up to
+         * {@code end}. A non negative {@code previous} is the offset of the
+         * member before {@code start}, whose text tells whether the first
+         * line started there. {@code text} is the number of inflated bytes
+         * before {@code start}.
+         */
+        RangeTask(Path file, long start, long end, long skip, long length, long previous, long text,
+                  boolean memoryMapped, boolean timed, int quarantineSize) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.memoryMapped = memoryMapped;
+            this.compressed = true;
+            this.skip = skip;
+            this.length = length;
+            this.previous = previous;
+            this.text = text;
+            this.timed = timed;
+            this.quarantineSize = quarantineSize;
+        }
+
+        @Override
+        protected LogStore compute() {
+            try {
+                return readRange();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        LogStore readRange() throws IOException {
+            long started = timed ? System.nanoTime() : 0;
+            try {
+                if (compressed) {
+                    return readCompressed();
+                }
+                return memoryMapped ? readMapped() : readLines();
+            } finally {
+                if (timed) {
+                    nanos = System.nanoTime() - started;
+                }
+            }
+        }
+
+        private LogStore readCompressed() throws IOException {
+            boolean midLine = previous >= 0 && !GzipInput.endsWithNewline(file, previous, start);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 InputStream in = GzipInput.open(channel, start, end, true)) {
+                in.skipNBytes(skip);
+                return readChunks(in, midLine, text + skip);
+            }
+        }
+
+        private LogStore readLines() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 InputStream in = new BoundedInputStream(Channels.newInputStream(channel.position(start)), end - start)) {
+                return readChunks(in, false, text);
+            }
+        }
+
+        /**
+         * Reads the text chunk by chunk and parses the complete lines of each
+         * chunk as soon as it is filled; {@code skip} drops the text up to
+         * the first line break. {@code base} is the offset of the text in
+         * the file, or in the inflated file.
+         */
+        private LogStore readChunks(InputStream in, boolean skip, long base) throws IOException {
+            LogStore store = new LogStore();
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int filled = 0;
+            long offset = 0;
+            while (true) {
+                int n = in.readNBytes(buffer, filled, buffer.length - filled);
+                boolean eof = filled + n < buffer.length;
+                filled += n;
+                int cut = eof ? filled : lastIndexOf(buffer, (byte) '\n', filled) + 1;
+                if (cut == 0) {
+                    if (eof) {
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                int from = 0;
+                if (skip) {
+                    from = indexOf(buffer, (byte) '\n', 0, cut) + 1;
+                    if (from == 0) {
+                        break;
+                    }
+                    skip = false;
+                }
+                int stop = cut;
+                if (length - offset < cut) {
+                    stop = (int) Math.max(from, length - offset);
+                    while (stop < cut && stop > from && buffer[stop - 1] != '\n') {
+                        stop++;
+                    }
+                }
+                bytes += stop - from;
+                if (memoryMapped) {
+                    readTokens(ByteBuffer.wrap(buffer, from, stop - from), base + offset, store);
+                } else {
+                    readLines(buffer, from, stop, base + offset, store);
+                }
+                if (eof || stop < cut) {
+                    break;
+                }
+                System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+                filled -= cut;
+                offset += cut;
+            }
+            return store;
+        }
+
+        private static int indexOf(byte[] buffer, byte value, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int lastIndexOf(byte[] buffer, byte value, int to) {
+            for (int i = to - 1; i >= 0; i--) {
+                if (buffer[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Parses the lines of {@code buffer} from {@code from} to {@code to}
+         * as strings; {@code base} is the file offset of the buffer's first
+         * byte. Lines end at a line feed, a carriage return before it is
+         * dropped.
+         */
+        private void readLines(byte[] buffer, int from, int to, long base, LogStore store) {
+            Charset charset = Charset.defaultCharset();
+            int begin = from;
+            while (begin < to) {
+                int newline = indexOf(buffer, (byte) '\n', begin, to);
+                if (newline < 0) {
+                    newline = to;
+                }
+                int lineEnd = newline > begin && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+                readLine(new String(buffer, begin, lineEnd - begin, charset), base + begin, store);
+                begin = newline + 1;
+            }
+        }
+
+        private void readLine(String line, long offset, LogStore store) {
+            lines++;
+            String[] params = line.split("\t");
+            if (params.length != 5) {
+                reject(RejectedLine.Reason.FIELD_COUNT, FileMetrics.FIELDS, offset, line);
+                return;
+            }
+            String ip = params[0];
+            String user = params[1];
+            Event event = readEvent(params[3]);
+            if (event == null) {
+                reject(RejectedLine.Reason.EVENT, FileMetrics.EVENT, offset, line);
+                return;
+            }
+            int eventAdditionalParameter = -1;
+            if (LineTokenizer.hasTask(event)) {
+                eventAdditionalParameter = readAdditionalParameter(params[3], event);
+                if (eventAdditionalParameter < 0) {
+                    reject(RejectedLine.Reason.TASK, FileMetrics.TASK, offset, line);
+                    return;
+                }
+            }
+            long time = timestampParser.parse(params[2]);
+            if (time == TimestampParser.INVALID) {
+                reject(RejectedLine.Reason.DATE, FileMetrics.DATE, offset, line);
+            }
+            Status status = readStatus(params[4]);
+            if (status == null) {
+                reject(RejectedLine.Reason.STATUS, FileMetrics.STATUS, offset, line);
+            }
+            store.add(ip, user, time, event, eventAdditionalParameter, status);
+        }
+
+        private LogStore readMapped() throws IOException {
+            LogStore store = new LogStore();
+            bytes = end - start;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                readTokens(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, store);
+            }
+            return store;
+        }
+
+        /**
+         * Parses the lines of {@code buffer} in place; {@code base} is the
+         * file offset of the buffer's position zero.
+         */
+        private void readTokens(ByteBuffer buffer, long base, LogStore store) {
+            LineTokenizer tokenizer = new LineTokenizer(buffer);
+            while (tokenizer.nextLine()) {
+                lines++;
+                if (tokenizer.fieldCount() != LineTokenizer.FIELDS) {
+                    reject(RejectedLine.Reason.FIELD_COUNT, FileMetrics.FIELDS, base, tokenizer);
+                    continue;
+                }
+                Event event = tokenizer.event(3);
+                if (event == null) {
+                    reject(RejectedLine.Reason.EVENT, FileMetrics.EVENT, base, tokenizer);
+                    continue;
+                }
+                int eventAdditionalParameter = -1;
+                if (LineTokenizer.hasTask(event)) {
+                    eventAdditionalParameter = tokenizer.task(3, event);
+                    if (eventAdditionalParameter < 0) {
+                        reject(RejectedLine.Reason.TASK, FileMetrics.TASK, base, tokenizer);
+                        continue;
+                    }
+                }
+                int ip = store.ips().intern(buffer, tokenizer.start(0), tokenizer.end(0));
+                int user = store.users().intern(buffer, tokenizer.start(1), tokenizer.end(1));
+                long time = timestampParser.parse(buffer, tokenizer.start(2), tokenizer.end(2));
+                if (time == TimestampParser.INVALID) {
+                    reject(RejectedLine.Reason.DATE, FileMetrics.DATE, base, tokenizer);
+                }
+                Status status = tokenizer.status(4);
+                if (status == null) {
+                    reject(RejectedLine.Reason.STATUS, FileMetrics.STATUS, base, tokenizer);
+                }
+                store.add(ip, user, time, event, eventAdditionalParameter, status);
+            }
+        }
+
+        private void reject(RejectedLine.Reason reason, int field, long offset, String line) {
+            failures[field]++;
+            if (rejected.size() < quarantineSize) {
+                rejected.add(new RejectedLine(file, offset, reason, line));
+            }
+        }
+
+        private void reject(RejectedLine.Reason reason, int field, long base, LineTokenizer tokenizer) {
+            failures[field]++;
+            if (rejected.size() < quarantineSize) {
+                byte[] line = new byte[tokenizer.lineEnd() - tokenizer.lineStart()];
+                tokenizer.buffer().get(tokenizer.lineStart(), line);
+                rejected.add(new RejectedLine(file, base + tokenizer.lineStart(), reason,
+                        new String(line, Charset.defaultCharset())));
+            }
+        }
+
+        /**
+         * Returns the event named by the field, or null if it is not one.
+         * Task events may be followed by spaces and the task number.
+         */
+        private static Event readEvent(String field) {
+            for (Event event : EVENTS) {
+                String name = event.name();
+                if (!field.startsWith(name)) {
+                    continue;
+                }
+                if (field.length() == name.length()) {
+                    return event;
+                }
+                if (LineTokenizer.hasTask(event) && field.charAt(name.length()) == ' ') {
+                    return event;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the task number that follows the event name, or -1 if there
+         * is none.
+         */
+        private static int readAdditionalParameter(String field, Event event) {
+            int i = event.name().length();
+            while (i < field.length() && field.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == field.length()) {
+                return -1;
+            }
+            long task = 0;
+            for (; i < field.length(); i++) {
+                int digit = field.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                task = task * 10 + digit;
+                if (task > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            }
+            return (int) task;
+        }
+
+        private Status readStatus(String lineToParse) {
+            Status status = null;
+            switch (lineToParse) {
+                case "OK": status = Status.OK;
+                    break;
+                case "ERROR": status = Status.ERROR;
+                    break;
+                case "FAILED": status = Status.FAILED;
+            }
+            return status;
+        }
+    }
+
+    static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(remaining, super.available());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
\ No newline at end of file
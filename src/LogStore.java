@@ -0,0 +1,308 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Column oriented storage of parsed log lines. Row {@code i} is spread over
+ * the primitive arrays at index {@code i}; IPs are stored as {@link IpTable}
+ * codes, users as ids into a symbol table, events and statuses as their
+ * ordinals, or -1 when the column could not be parsed.
+ */
+class LogStore {
+    static final byte NONE = -1;
+    private static final Event[] EVENTS = Event.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private final IpTable ips;
+    private final SymbolTable users;
+    private long[] times;
+    private byte[] events;
+    private byte[] statuses;
+    private int[] tasks;
+    private int[] ipCodes;
+    private int[] userIds;
+    private int size;
+
+    LogStore() {
+        this(new IpTable(Charset.defaultCharset()), new SymbolTable(Charset.defaultCharset()));
+    }
+
+    /**
+     * Creates a store whose rows refer to the given, possibly shared, IP and
+     * user tables.
+     */
+    LogStore(IpTable ips, SymbolTable users) {
+        this(ips, users, 1024);
+    }
+
+    private LogStore(IpTable ips, SymbolTable users, int capacity) {
+        this.ips = ips;
+        this.users = users;
+        times = new long[capacity];
+        events = new byte[capacity];
+        statuses = new byte[capacity];
+        tasks = new int[capacity];
+        ipCodes = new int[capacity];
+        userIds = new int[capacity];
+    }
+
+    /**
+     * Wraps already filled columns, which must all have the same length.
+     */
+    LogStore(IpTable ips, SymbolTable users, long[] times, byte[] events, byte[] statuses,
+             int[] tasks, int[] ipCodes, int[] userIds) {
+        this.ips = ips;
+        this.users = users;
+        this.times = times;
+        this.events = events;
+        this.statuses = statuses;
+        this.tasks = tasks;
+        this.ipCodes = ipCodes;
+        this.userIds = userIds;
+        this.size = times.length;
+    }
+
+    IpTable ips() {
+        return ips;
+    }
+
+    SymbolTable users() {
+        return users;
+    }
+
+    void add(String ip, String user, long time, Event event, int task, Status status) {
+        add(ips.intern(ip), users.intern(user), time, event, task, status);
+    }
+
+    /**
+     * Adds a row whose IP and user were already interned into this store's
+     * tables.
+     */
+    void add(int ipCode, int userId, long time, Event event, int task, Status status) {
+        if (size == times.length) {
+            grow(size * 2);
+        }
+        times[size] = time;
+        events[size] = event == null ? NONE : (byte) event.ordinal();
+        statuses[size] = status == null ? NONE : (byte) status.ordinal();
+        tasks[size] = task;
+        ipCodes[size] = ipCode;
+        userIds[size] = userId;
+        size++;
+    }
+
+    /**
+     * Appends all rows of {@code other}, translating its user ids and
+     * fallback IP codes into those of this store.
+     */
+    void addAll(LogStore other) {
+        if (size + other.size > times.length) {
+            grow(Math.max(size + other.size, times.length * 2));
+        }
+        System.arraycopy(other.times, 0, times, size, other.size);
+        System.arraycopy(other.events, 0, events, size, other.size);
+        System.arraycopy(other.statuses, 0, statuses, size, other.size);
+        System.arraycopy(other.tasks, 0, tasks, size, other.size);
+        if (other.ips == ips && other.users == users) {
+            System.arraycopy(other.ipCodes, 0, ipCodes, size, other.size);
+            System.arraycopy(other.userIds, 0, userIds, size, other.size);
+            size += other.size;
+            return;
+        }
+        int[] ipMapping = new int[other.ips.fallbackSize()];
+        for (int id = 0; id < ipMapping.length; id++) {
+            ipMapping[id] = ips.intern(other.ips.fallbackValue(id));
+        }
+        int[] userMapping = new int[other.users.size()];
+        for (int id = 0; id < userMapping.length; id++) {
+            userMapping[id] = users.intern(other.users.get(id));
+        }
+        for (int i = 0; i < other.size; i++) {
+            int ip = other.ipCodes[i];
+            ipCodes[size + i] = IpTable.isPacked(ip) ? ip : ipMapping[ip];
+            userIds[size + i] = userMapping[other.userIds[i]];
+        }
+        size += other.size;
+    }
+
+    /**
+     * Copies the rows from {@code from} to {@code to} into a new store that
+     * shares this store's tables.
+     */
+    LogStore copyOfRange(int from, int to) {
+        return new LogStore(ips, users, Arrays.copyOfRange(times, from, to), Arrays.copyOfRange(events, from, to),
+                Arrays.copyOfRange(statuses, from, to), Arrays.copyOfRange(tasks, from, to),
+                Arrays.copyOfRange(ipCodes, from, to), Arrays.copyOfRange(userIds, from, to));
+    }
+
+    /**
+     * Releases the spare capacity once loading is done.
+     */
+    void trimToSize() {
+        if (size < times.length) {
+            grow(size);
+        }
+    }
+
+    /**
+     * Reorders the rows by ascending timestamp, keeping the load order of
+     * rows with equal timestamps. Rows whose date could not be parsed sort
+     * first. Already ordered data (the usual case for log files) is
+     * detected and left alone.
+     */
+    void sortByTime() {
+        if (isSortedByTime()) {
+            return;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+        long[] sortedTimes = new long[size];
+        byte[] sortedEvents = new byte[size];
+        byte[] sortedStatuses = new byte[size];
+        int[] sortedTasks = new int[size];
+        int[] sortedIpCodes = new int[size];
+        int[] sortedUserIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            sortedTimes[i] = times[row];
+            sortedEvents[i] = events[row];
+            sortedStatuses[i] = statuses[row];
+            sortedTasks[i] = tasks[row];
+            sortedIpCodes[i] = ipCodes[row];
+            sortedUserIds[i] = userIds[row];
+        }
+        times = sortedTimes;
+        events = sortedEvents;
+        statuses = sortedStatuses;
+        tasks = sortedTasks;
+        ipCodes = sortedIpCodes;
+        userIds = sortedUserIds;
+    }
+
+    boolean isSortedByTime() {
+        for (int i = 1; i < size; i++) {
+            if (times[i - 1] > times[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle);
+        mergeSort(order, buffer, middle, to);
+        if (times[order[middle - 1]] <= times[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && times[buffer[left]] <= times[buffer[right]]) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Index of the first row whose timestamp is after {@code after}. Only
+     * valid once the rows are sorted.
+     */
+    int rangeStart(long after) {
+        return after == Long.MAX_VALUE ? size : search(after + 1);
+    }
+
+    /**
+     * Index of the first row whose timestamp is not before {@code before}.
+     * Only valid once the rows are sorted.
+     */
+    int rangeEnd(long before) {
+        return search(before);
+    }
+
+    /**
+     * Index of the first row with a timestamp of at least {@code time}.
+     */
+    private int search(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void grow(int capacity) {
+        capacity = Math.max(capacity, 1);
+        times = Arrays.copyOf(times, capacity);
+        events = Arrays.copyOf(events, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        tasks = Arrays.copyOf(tasks, capacity);
+        ipCodes = Arrays.copyOf(ipCodes, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Bytes allocated for the columns, including unused capacity.
+     */
+    long columnBytes() {
+        return (long) times.length * (Long.BYTES + 1 + 1 + 3 * Integer.BYTES);
+    }
+
+    long[] times() {
+        return times;
+    }
+
+    byte[] events() {
+        return events;
+    }
+
+    byte[] statuses() {
+        return statuses;
+    }
+
+    int[] tasks() {
+        return tasks;
+    }
+
+    int[] ipCodes() {
+        return ipCodes;
+    }
+
+    int[] userIds() {
+        return userIds;
+    }
+
+    String ip(int row) {
+        return ips.get(ipCodes[row]);
+    }
+
+    String user(int row) {
+        return users.get(userIds[row]);
+    }
+
+    Event event(int row) {
+        return events[row] == NONE ? null : EVENTS[events[row]];
+    }
+
+    Status status(int row) {
+        return statuses[row] == NONE ? null : STATUSES[statuses[row]];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Follows the {@code .log} and {@code .log.gz} files of a directory. For
+ * every file it remembers the offset up to which complete lines have been
+ * read, and each poll parses only what was appended since. Files are
+ * told apart by their file key (device and inode on Unix), or by path where
+ * the file system has none; so a file renamed by log rotation keeps its
+ * offset, and the new file created under the old name is read from the
+ * start, as is a file that shrank. A rotated file compressed into a new
+ * {@code .log.gz} is a new file. A trailing line without its newline is left
+ * for the next poll. BGZF files are read up to the last line break in
+ * their whole members, so neither a member still being written nor a line
+ * cut at a member boundary is lost. Other gzip files, whose member sizes are
+ * not known up front, are read to their end; a member cut short there is
+ * taken as still being written, and the file is read again once it grew.
+ */
+class LogTailer {
+    private final Path logDir;
+    private final LogReader reader;
+    private final Map<Object, FileState> files = new HashMap<>();
+
+    LogTailer(Path logDir, LogReader reader) {
+        this.logDir = logDir;
+        this.reader = reader;
+    }
+
+    /**
+     * Parses the lines appended since the previous poll into {@code store}.
+     * Each file is read on its own, and its offset only advances together
+     * with its rows being added to {@code store}; a file that can not be
+     * read keeps its offset and is tried again on the next poll, while the
+     * other files go on. Returns the files that could not be read.
+     */
+    Map<Path, IOException> poll(LogStore store) throws IOException {
+        Map<Object, FileState> next = new HashMap<>();
+        Map<Path, IOException> failures = new LinkedHashMap<>();
+        for (Path file : reader.listLogFiles(logDir)) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            Object key = attributes.fileKey() != null ? attributes.fileKey() : file;
+            FileState state = files.get(key);
+            long size = attributes.size();
+            if (state == null || size < state.offset) {
+                state = new FileState(0, 0);
+            }
+            try {
+                next.put(key, read(file, state, size, store));
+            } catch (IOException e) {
+                next.put(key, state);
+                failures.put(file, e);
+            }
+        }
+        files.clear();
+        files.putAll(next);
+        return failures;
+    }
+
+    /**
+     * Reads what was appended to {@code file} after {@code state} and adds it
+     * to {@code store} only if all of it could be read; returns the new state.
+     */
+    private FileState read(Path file, FileState state, long size, LogStore store) throws IOException {
+        if (size <= state.offset) {
+            return state;
+        }
+        boolean compressed = GzipInput.isCompressed(file);
+        LogReader.Range range;
+        FileState next;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long whole = compressed ? GzipInput.wholeMembersEnd(channel, state.offset, size) : -1;
+            if (!compressed) {
+                next = new FileState(LogReader.lastLineEnd(channel, state.offset, size), 0);
+                range = new LogReader.Range(file, state.offset, next.offset);
+            } else if (whole < 0) {
+                next = new FileState(size, 0);
+                range = new LogReader.Range(file, state.offset, size);
+            } else {
+                GzipInput.Members members = GzipInput.members(channel, state.offset, whole);
+                next = lastLineEnd(file, state, members);
+                if (next == null) {
+                    return state;
+                }
+                long length = next.skip - state.skip;
+                for (int i = 0; i < members.count() && members.offsets[i] < next.offset; i++) {
+                    length += Integer.toUnsignedLong(members.sizes[i]);
+                }
+                range = new LogReader.Range(file, state.offset, whole, state.skip, length);
+            }
+        }
+        if (next.offset == state.offset && next.skip == state.skip) {
+            return state;
+        }
+        LogStore appended = new LogStore(store.ips(), store.users());
+        IOException failure = reader.read(Collections.singletonList(range), appended::addAll).get(file);
+        if (failure instanceof EOFException && compressed) {
+            return state;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        store.addAll(appended);
+        return next;
+    }
+
+    /**
+     * Finds the end of the last complete line in the whole BGZF
+     * {@code members} after {@code state}, which is where the next poll goes
+     * on; null if there is none yet. Members are inflated from the last one
+     * backwards until a line break turns up.
+     */
+    private static FileState lastLineEnd(Path file, FileState state, GzipInput.Members members)
+            throws IOException {
+        for (int i = members.count() - 1; i >= 0; i--) {
+            byte[] text;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 InputStream in = GzipInput.open(channel, members.offsets[i], members.offsets[i + 1], false)) {
+                text = in.readAllBytes();
+            }
+            int from = i == 0 ? (int) state.skip : 0;
+            for (int j = text.length - 1; j >= from; j--) {
+                if (text[j] == '\n') {
+                    return j + 1 == text.length
+                            ? new FileState(members.offsets[i + 1], 0)
+                            : new FileState(members.offsets[i], j + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Where reading a file goes on: a byte offset, and for BGZF files the
+     * number of inflated bytes of the member at that offset already read.
+     */
+    private static class FileState {
+        private final long offset;
+        private final long skip;
+
+        FileState(long offset, long skip) {
+            this.offset = offset;
+            this.skip = skip;
+        }
+    }
+}
\ No newline at end of file
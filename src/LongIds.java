@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+/**
+ * Assigns dense ids 0, 1, 2, ... to distinct long keys in the order they are
+ * first added. Used to group and deduplicate column values during a scan
+ * without boxing them.
+ */
+class LongIds {
+    private long[] keys = new long[16];
+    private int[] slots = new int[32];
+    private int size;
+
+    /**
+     * Returns the id of {@code key}, assigning the next free id if it was not
+     * added before.
+     */
+    int add(long key) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (keys[id] == key) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of {@code key}, or -1 if it was never added.
+     */
+    int find(long key) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (keys[id] == key) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    long key(int id) {
+        return keys[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(keys[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
\ No newline at end of file
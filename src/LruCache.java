@@ -0,0 +1,50 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Thread safe map that holds at most {@code capacity} entries and evicts the
+ * least recently used one first.
+ */
+class LruCache<K, V> {
+    private final Map<K, V> map;
+
+    LruCache(int capacity) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    /**
+     * Returns the cached value, computing and caching it if absent. The
+     * value is computed outside the lock, so two threads missing at the
+     * same time may both compute it.
+     */
+    V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+        V value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters behind {@link LogParser#getMetrics()}, only created when metrics
+ * are enabled. Parse counts are added once per parsed range. Query
+ * latencies are recorded per public method; rows touched by a query are
+ * attributed to the innermost method running on the calling thread.
+ */
+class Metrics {
+    private final Map<Path, FileCounter> files = new ConcurrentHashMap<>();
+    private final Map<String, QueryCounter> queries = new ConcurrentHashMap<>();
+    private final ThreadLocal<QueryCounter> current = new ThreadLocal<>();
+
+    void parsed(Path file, long lines, long bytes, long nanos, long[] failures) {
+        FileCounter counter = files.computeIfAbsent(file, key -> new FileCounter());
+        counter.lines.add(lines);
+        counter.bytes.add(bytes);
+        counter.nanos.add(nanos);
+        for (int field = 0; field < failures.length; field++) {
+            counter.failures[field].add(failures[field]);
+        }
+    }
+
+    <T> T time(String method, Supplier<T> query) {
+        QueryCounter counter = queries.computeIfAbsent(method, key -> new QueryCounter());
+        QueryCounter outer = current.get();
+        current.set(counter);
+        long start = System.nanoTime();
+        try {
+            return query.get();
+        } finally {
+            counter.latency.record(System.nanoTime() - start);
+            current.set(outer);
+        }
+    }
+
+    /**
+     * The counter of the query running on this thread, or null.
+     */
+    QueryCounter current() {
+        return current.get();
+    }
+
+    Map<String, FileMetrics> files() {
+        Map<String, FileMetrics> result = new TreeMap<>();
+        files.forEach((file, counter) -> result.put(file.toString(), counter.snapshot()));
+        return result;
+    }
+
+    Map<String, QueryMetrics> queries() {
+        Map<String, QueryMetrics> result = new TreeMap<>();
+        queries.forEach((method, counter) -> result.put(method, counter.snapshot()));
+        return result;
+    }
+
+    private static final class FileCounter {
+        private final LongAdder lines = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder[] failures = new LongAdder[FileMetrics.FAILURE_FIELDS];
+
+        FileCounter() {
+            for (int field = 0; field < failures.length; field++) {
+                failures[field] = new LongAdder();
+            }
+        }
+
+        FileMetrics snapshot() {
+            long[] counts = new long[failures.length];
+            for (int field = 0; field < failures.length; field++) {
+                counts[field] = failures[field].sum();
+            }
+            return new FileMetrics(lines.sum(), bytes.sum(), nanos.sum(), counts);
+        }
+    }
+
+    static final class QueryCounter {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder scanned = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+
+        void scanned(long rows) {
+            scanned.add(rows);
+        }
+
+        void matched() {
+            matched.increment();
+        }
+
+        QueryMetrics snapshot() {
+            return new QueryMetrics(latency.count(), latency.count() == 0 ? 0 : latency.total() / latency.count(),
+                    latency.percentile(50), latency.percentile(90), latency.percentile(99), latency.percentile(99.9),
+                    latency.max(), scanned.sum(), matched.sum());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+import java.util.Map;
+
+/**
+ * Metrics of a {@link LogParser} taken at one point in time. The store
+ * figures are always filled in; parse and query figures only when metrics
+ * are enabled, see {@link LogParserConfig#setMetricsEnabled}.
+ */
+public final class MetricsSnapshot {
+    private final long epoch;
+    private final long rows;
+    private final long mappedRows;
+    private final int segments;
+    private final long heapBytes;
+    private final long mappedBytes;
+    private final Map<String, FileMetrics> files;
+    private final Map<String, QueryMetrics> queries;
+    private final CacheStats resultCache;
+
+    MetricsSnapshot(long epoch, long rows, long mappedRows, int segments, long heapBytes, long mappedBytes,
+                    Map<String, FileMetrics> files, Map<String, QueryMetrics> queries, CacheStats resultCache) {
+        this.epoch = epoch;
+        this.rows = rows;
+        this.mappedRows = mappedRows;
+        this.segments = segments;
+        this.heapBytes = heapBytes;
+        this.mappedBytes = mappedBytes;
+        this.files = files;
+        this.queries = queries;
+        this.resultCache = resultCache;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Rows visible to queries, including those in spill files.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getMappedRows() {
+        return mappedRows;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Bytes taken by the columns of the rows on the heap. Indexes, rollups
+     * and decoded blocks of spill files come on top.
+     */
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    /**
+     * Bytes of compressed rows in memory mapped spill files.
+     */
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * Parse counters by file path.
+     */
+    public Map<String, FileMetrics> getFiles() {
+        return files;
+    }
+
+    /**
+     * Query counters by method name.
+     */
+    public Map<String, QueryMetrics> getQueries() {
+        return queries;
+    }
+
+    public CacheStats getResultCache() {
+        return resultCache;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{epoch=" + epoch + ", rows=" + rows + ", mappedRows=" + mappedRows + ", segments="
+                + segments + ", heapBytes=" + heapBytes + ", mappedBytes=" + mappedBytes + ", files=" + files
+                + ", queries=" + queries + ", resultCache=" + resultCache + "}";
+    }
+}
\ No newline at end of file
@@ -1,5 +1,18 @@
 import java.util.Set;
 
 public interface QLQuery {
+    /**
+     * Runs a query such as
+     * {@code get ip for user = "Amigo" or event = "LOGIN" and date between "1.1.2013 0:0:0" and "1.1.2014 0:0:0"},
+     * {@code count distinct user for status = "FAILED" group by event} or
+     * {@code get user order by date desc limit 10}.
+     *
+     * <p>{@code get} returns the distinct values of the field; {@code count}
+     * and {@code count distinct} a single Integer. With {@code group by} the
+     * set holds a {@link java.util.Map.Entry} per group, from the group's
+     * value to its result. Ordered or limited results iterate in order.
+     *
+     * @throws IllegalArgumentException if the query can not be parsed
+     */
     Set<Object> execute(String query);
 }
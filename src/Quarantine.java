@@ -0,0 +1,36 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded buffer of rejected lines. Parsed ranges hand over their rejected
+ * lines in file order; once the buffer is full further lines are dropped
+ * until it is drained, so a flood of bad lines costs no more than counting
+ * them.
+ */
+class Quarantine {
+    private final int capacity;
+    private List<RejectedLine> lines = new ArrayList<>();
+
+    Quarantine(int capacity) {
+        this.capacity = capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    synchronized void addAll(List<RejectedLine> rejected) {
+        for (RejectedLine line : rejected) {
+            if (lines.size() >= capacity) {
+                return;
+            }
+            lines.add(line);
+        }
+    }
+
+    synchronized List<RejectedLine> drain() {
+        List<RejectedLine> drained = lines;
+        lines = new ArrayList<>();
+        return drained;
+    }
+}
@@ -0,0 +1,455 @@
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Answers many queries over the same date range with a single pass over
+ * the rows. Register the queries, call {@link #run()} once, then read the
+ * results:
+ *
+ * <pre>
+ * QueryBatch batch = parser.batch(after, before);
+ * QueryBatch.Result&lt;Integer&gt; ips = batch.getNumberOfUniqueIPs();
+ * QueryBatch.Result&lt;Set&lt;Event&gt;&gt; events = batch.getEventsForUser("Amigo");
+ * batch.run();
+ * System.out.println(ips.get() + " " + events.get());
+ * </pre>
+ *
+ * Every query is split into a row filter and an accumulator of one column.
+ * Queries that need the same column under the same filter share one
+ * accumulator, and each distinct filter is tested once per row. The methods
+ * return the same results as their counterparts in {@link IPQuery},
+ * {@link UserQuery}, {@link DateQuery} and {@link EventQuery}.
+ */
+public class QueryBatch {
+    private final Supplier<List<Segment>> segments;
+    private final IpTable ips;
+    private final SymbolTable users;
+    private final long from;
+    private final long to;
+    private final Map<Filter, Map<Class<?>, Accumulator>> accumulators = new LinkedHashMap<>();
+    private boolean ran;
+
+    QueryBatch(Supplier<List<Segment>> segments, IpTable ips, SymbolTable users, long from, long to) {
+        this.segments = segments;
+        this.ips = ips;
+        this.users = users;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * The value of a registered query, available once the batch has run.
+     */
+    public interface Result<T> {
+        T get();
+    }
+
+    public Result<Integer> getNumberOfUniqueIPs() {
+        IpAccumulator accumulator = accumulator(Filter.ALL, IpAccumulator.class, IpAccumulator::new);
+        return result(() -> accumulator.codes.size());
+    }
+
+    public Result<Set<String>> getUniqueIPs() {
+        return ips(Filter.ALL);
+    }
+
+    public Result<Set<String>> getIPsForUser(String user) {
+        return ips(new Filter().user(user));
+    }
+
+    public Result<Set<String>> getIPsForEvent(Event event) {
+        return ips(new Filter().event(event));
+    }
+
+    public Result<Set<String>> getIPsForStatus(Status status) {
+        return ips(new Filter().status(status));
+    }
+
+    public Result<Integer> getNumberOfUsers() {
+        UserAccumulator accumulator = accumulator(Filter.ALL, UserAccumulator.class, UserAccumulator::new);
+        return result(() -> accumulator.ids.cardinality());
+    }
+
+    public Result<Integer> getNumberOfUserEvents(String user) {
+        EventAccumulator accumulator = accumulator(new Filter().user(user), EventAccumulator.class, EventAccumulator::new);
+        return result(() -> Integer.bitCount(accumulator.mask));
+    }
+
+    public Result<Set<String>> getUsersForIP(String ip) {
+        return users(new Filter().ip(ip));
+    }
+
+    public Result<Set<String>> getLoggedUsers() {
+        return users(new Filter().event(Event.LOGIN));
+    }
+
+    public Result<Set<String>> getDownloadedPluginUsers() {
+        return users(new Filter().event(Event.DOWNLOAD_PLUGIN));
+    }
+
+    public Result<Set<String>> getWroteMessageUsers() {
+        return users(new Filter().event(Event.WRITE_MESSAGE));
+    }
+
+    public Result<Set<String>> getSolvedTaskUsers() {
+        return users(new Filter().event(Event.SOLVE_TASK));
+    }
+
+    public Result<Set<String>> getSolvedTaskUsers(int task) {
+        return users(new Filter().event(Event.SOLVE_TASK).task(task));
+    }
+
+    public Result<Set<String>> getDoneTaskUsers() {
+        return users(new Filter().event(Event.DONE_TASK));
+    }
+
+    public Result<Set<String>> getDoneTaskUsers(int task) {
+        return users(new Filter().event(Event.DONE_TASK).task(task));
+    }
+
+    public Result<Set<Date>> getDatesForUserAndEvent(String user, Event event) {
+        return dates(new Filter().user(user).event(event));
+    }
+
+    public Result<Set<Date>> getDatesWhenSomethingFailed() {
+        return dates(new Filter().status(Status.FAILED));
+    }
+
+    public Result<Set<Date>> getDatesWhenErrorHappened() {
+        return dates(new Filter().status(Status.ERROR));
+    }
+
+    public Result<Date> getDateWhenUserLoggedFirstTime(String user) {
+        return firstDate(new Filter().user(user).event(Event.LOGIN));
+    }
+
+    public Result<Date> getDateWhenUserSolvedTask(String user, int task) {
+        return firstDate(new Filter().user(user).event(Event.SOLVE_TASK));
+    }
+
+    public Result<Date> getDateWhenUserDoneTask(String user, int task) {
+        return firstDate(new Filter().user(user).event(Event.DONE_TASK).task(task));
+    }
+
+    public Result<Set<Date>> getDatesWhenUserWroteMessage(String user) {
+        return dates(new Filter().user(user).event(Event.WRITE_MESSAGE));
+    }
+
+    public Result<Set<Date>> getDatesWhenUserDownloadedPlugin(String user) {
+        return dates(new Filter().user(user).event(Event.DOWNLOAD_PLUGIN));
+    }
+
+    public Result<Integer> getNumberOfAllEvents() {
+        EventAccumulator accumulator = accumulator(Filter.ALL, EventAccumulator.class, EventAccumulator::new);
+        return result(() -> Integer.bitCount(accumulator.mask));
+    }
+
+    public Result<Set<Event>> getAllEvents() {
+        return events(Filter.ALL);
+    }
+
+    public Result<Set<Event>> getEventsForIP(String ip) {
+        return events(new Filter().ip(ip));
+    }
+
+    public Result<Set<Event>> getEventsForUser(String user) {
+        return events(new Filter().user(user));
+    }
+
+    public Result<Set<Event>> getFailedEvents() {
+        return events(new Filter().status(Status.FAILED));
+    }
+
+    public Result<Set<Event>> getErrorEvents() {
+        return events(new Filter().status(Status.ERROR));
+    }
+
+    public Result<Integer> getNumberOfAttemptToSolveTask(int task) {
+        CountAccumulator accumulator = accumulator(new Filter().event(Event.SOLVE_TASK).task(task),
+                CountAccumulator.class, CountAccumulator::new);
+        return result(() -> accumulator.count);
+    }
+
+    public Result<Integer> getNumberOfSuccessfulAttemptToSolveTask(int task) {
+        return getNumberOfAttemptToSolveTask(task);
+    }
+
+    public Result<Map<Integer, Integer>> getAllSolvedTasksAndTheirNumber() {
+        return tasks(new Filter().event(Event.SOLVE_TASK));
+    }
+
+    public Result<Map<Integer, Integer>> getAllDoneTasksAndTheirNumber() {
+        return tasks(new Filter().event(Event.DONE_TASK));
+    }
+
+    /**
+     * Scans the rows of the date range once and computes every registered
+     * query. A batch can only run once.
+     */
+    public void run() {
+        if (ran) {
+            throw new IllegalStateException("QueryBatch has already run");
+        }
+        List<Filter> filters = new ArrayList<>();
+        List<Accumulator[]> groups = new ArrayList<>();
+        for (Map.Entry<Filter, Map<Class<?>, Accumulator>> entry : accumulators.entrySet()) {
+            if (entry.getKey().resolve(ips, users)) {
+                filters.add(entry.getKey());
+                groups.add(entry.getValue().values().toArray(new Accumulator[0]));
+            }
+        }
+        Filter[] filterArray = filters.toArray(new Filter[0]);
+        Accumulator[][] groupArray = groups.toArray(new Accumulator[0][]);
+        for (Segment segment : segments.get()) {
+            int start = segment.rangeStart(from), end = segment.rangeEnd(to);
+            if (start >= end) {
+                continue;
+            }
+            LogStore store = segment.store();
+            for (int row = start; row < end; row++) {
+                for (int i = 0; i < filterArray.length; i++) {
+                    if (filterArray[i].test(store, row)) {
+                        for (Accumulator accumulator : groupArray[i]) {
+                            accumulator.accept(store, row);
+                        }
+                    }
+                }
+            }
+        }
+        ran = true;
+    }
+
+    private Result<Set<String>> ips(Filter filter) {
+        IpAccumulator accumulator = accumulator(filter, IpAccumulator.class, IpAccumulator::new);
+        return result(() -> {
+            Set<String> set = new HashSet<>();
+            for (int code : accumulator.codes.toArray()) {
+                set.add(ips.get(code));
+            }
+            return set;
+        });
+    }
+
+    private Result<Set<String>> users(Filter filter) {
+        UserAccumulator accumulator = accumulator(filter, UserAccumulator.class, UserAccumulator::new);
+        return result(() -> {
+            Set<String> set = new HashSet<>();
+            for (int id = accumulator.ids.nextSetBit(0); id >= 0; id = accumulator.ids.nextSetBit(id + 1)) {
+                set.add(users.get(id));
+            }
+            return set;
+        });
+    }
+
+    private Result<Set<Date>> dates(Filter filter) {
+        DateAccumulator accumulator = accumulator(filter, DateAccumulator.class, DateAccumulator::new);
+        return result(() -> new HashSet<>(accumulator.dates));
+    }
+
+    private Result<Date> firstDate(Filter filter) {
+        FirstDateAccumulator accumulator = accumulator(filter, FirstDateAccumulator.class, FirstDateAccumulator::new);
+        return result(() -> accumulator.found ? new Date(accumulator.first) : null);
+    }
+
+    private Result<Set<Event>> events(Filter filter) {
+        EventAccumulator accumulator = accumulator(filter, EventAccumulator.class, EventAccumulator::new);
+        return result(() -> {
+            Set<Event> set = new HashSet<>();
+            for (Event event : Event.values()) {
+                if ((accumulator.mask & 1 << event.ordinal()) != 0) {
+                    set.add(event);
+                }
+            }
+            return set;
+        });
+    }
+
+    private Result<Map<Integer, Integer>> tasks(Filter filter) {
+        TaskAccumulator accumulator = accumulator(filter, TaskAccumulator.class, TaskAccumulator::new);
+        return result(() -> new HashMap<>(accumulator.counts));
+    }
+
+    private <A extends Accumulator> A accumulator(Filter filter, Class<A> type, Supplier<A> factory) {
+        if (ran) {
+            throw new IllegalStateException("QueryBatch has already run");
+        }
+        return type.cast(accumulators.computeIfAbsent(filter, key -> new LinkedHashMap<>())
+                .computeIfAbsent(type, key -> factory.get()));
+    }
+
+    private <T> Result<T> result(Supplier<T> value) {
+        return () -> {
+            if (!ran) {
+                throw new IllegalStateException("QueryBatch has not run yet");
+            }
+            return value.get();
+        };
+    }
+
+    /**
+     * Conjunction of equality tests on the event, status, task, user and IP
+     * columns. A null event or status, like an unknown user or IP, matches
+     * no row at all.
+     */
+    private static final class Filter {
+        private static final Filter ALL = new Filter();
+        private static final int ANY = Integer.MIN_VALUE;
+
+        private int event = ANY;
+        private int status = ANY;
+        private int task = ANY;
+        private String user;
+        private String ip;
+        private boolean never;
+        private int userId = ANY;
+        private long ipCode = IpTable.ABSENT;
+
+        Filter event(Event event) {
+            never |= event == null;
+            this.event = event == null ? ANY : event.ordinal();
+            return this;
+        }
+
+        Filter status(Status status) {
+            never |= status == null;
+            this.status = status == null ? ANY : status.ordinal();
+            return this;
+        }
+
+        Filter task(int task) {
+            this.task = task;
+            return this;
+        }
+
+        Filter user(String user) {
+            never |= user == null;
+            this.user = user;
+            return this;
+        }
+
+        Filter ip(String ip) {
+            never |= ip == null;
+            this.ip = ip;
+            return this;
+        }
+
+        /**
+         * Looks up the user and IP ids; returns false if the filter can not
+         * match any row.
+         */
+        boolean resolve(IpTable ips, SymbolTable users) {
+            if (never) {
+                return false;
+            }
+            if (user != null) {
+                userId = users.find(user);
+                if (userId < 0) {
+                    return false;
+                }
+            }
+            if (ip != null) {
+                ipCode = ips.find(ip);
+                return ipCode != IpTable.ABSENT;
+            }
+            return true;
+        }
+
+        boolean test(LogStore store, int row) {
+            return (event == ANY || store.events()[row] == event)
+                    && (status == ANY || store.statuses()[row] == status)
+                    && (task == ANY || store.tasks()[row] == task)
+                    && (userId == ANY || store.userIds()[row] == userId)
+                    && (ip == null || store.ipCodes()[row] == (int) ipCode);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Filter)) {
+                return false;
+            }
+            Filter filter = (Filter) o;
+            return event == filter.event && status == filter.status && task == filter.task
+                    && never == filter.never && Objects.equals(user, filter.user) && Objects.equals(ip, filter.ip);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(event, status, task, never, user, ip);
+        }
+    }
+
+    private abstract static class Accumulator {
+        abstract void accept(LogStore store, int row);
+    }
+
+    private static final class IpAccumulator extends Accumulator {
+        private final IntSet codes = new IntSet();
+
+        @Override
+        void accept(LogStore store, int row) {
+            codes.add(store.ipCodes()[row]);
+        }
+    }
+
+    private static final class UserAccumulator extends Accumulator {
+        private final BitSet ids = new BitSet();
+
+        @Override
+        void accept(LogStore store, int row) {
+            ids.set(store.userIds()[row]);
+        }
+    }
+
+    private static final class DateAccumulator extends Accumulator {
+        private final Set<Date> dates = new HashSet<>();
+
+        @Override
+        void accept(LogStore store, int row) {
+            dates.add(new Date(store.times()[row]));
+        }
+    }
+
+    private static final class FirstDateAccumulator extends Accumulator {
+        private boolean found;
+        private long first;
+
+        @Override
+        void accept(LogStore store, int row) {
+            long time = store.times()[row];
+            if (!found || time < first) {
+                first = time;
+                found = true;
+            }
+        }
+    }
+
+    private static final class EventAccumulator extends Accumulator {
+        private int mask;
+
+        @Override
+        void accept(LogStore store, int row) {
+            byte event = store.events()[row];
+            if (event != LogStore.NONE) {
+                mask |= 1 << event;
+            }
+        }
+    }
+
+    private static final class CountAccumulator extends Accumulator {
+        private int count;
+
+        @Override
+        void accept(LogStore store, int row) {
+            count++;
+        }
+    }
+
+    private static final class TaskAccumulator extends Accumulator {
+        private final Map<Integer, Integer> counts = new HashMap<>();
+
+        @Override
+        void accept(LogStore store, int row) {
+            counts.merge(store.tasks()[row], 1, Integer::sum);
+        }
+    }
+}
\ No newline at end of file
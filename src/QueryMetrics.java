@@ -0,0 +1,74 @@
+/**
+ * Latency and row counts of one query method. Percentiles come from a
+ * histogram with buckets about three percent wide and are rounded up.
+ * Scanned rows are the rows inside the queried date ranges, matched rows
+ * those that passed the index filters and were read one by one; rows
+ * answered from rollups are scanned but not matched.
+ */
+public final class QueryMetrics {
+    private final long count;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final long rowsScanned;
+    private final long rowsMatched;
+
+    QueryMetrics(long count, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos,
+                 long maxNanos, long rowsScanned, long rowsMatched) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+        this.rowsScanned = rowsScanned;
+        this.rowsMatched = rowsMatched;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    public long getRowsMatched() {
+        return rowsMatched;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{count=" + count + ", meanNanos=" + meanNanos + ", p50Nanos=" + p50Nanos
+                + ", p90Nanos=" + p90Nanos + ", p99Nanos=" + p99Nanos + ", p999Nanos=" + p999Nanos
+                + ", maxNanos=" + maxNanos + ", rowsScanned=" + rowsScanned + ", rowsMatched=" + rowsMatched + "}";
+    }
+}
\ No newline at end of file
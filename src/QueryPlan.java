@@ -0,0 +1,525 @@
+import java.util.*;
+
+/**
+ * A QL query parsed once into a typed plan. The grammar, keywords in lower
+ * case and values in double quotes:
+ *
+ * <pre>
+ * query     = ("get" field | "count" ["distinct" field])
+ *             ["for" condition]
+ *             ["and date between" value "and" value]
+ *             ["group by" field]
+ *             ["order by date" ["asc" | "desc"]]
+ *             ["limit" number]
+ * condition = term {"or" term}
+ * term      = predicate {"and" predicate}
+ * predicate = field "=" value
+ * field     = "ip" | "user" | "date" | "event" | "status"
+ * </pre>
+ *
+ * Filter values are resolved when the plan is compiled: dates to millis,
+ * events and statuses to their constants. Users and IPs that are not IPv4
+ * addresses only get an id once they were read, so they are resolved on
+ * first use.
+ *
+ * <p>Predicates are answered from each segment's bitmap indexes and
+ * combined with bitmap and/or. The matching rows are then processed a batch
+ * at a time: the selected and grouped columns are gathered into primitive
+ * arrays and aggregated on dense ids, so objects are only built for the
+ * values that end up in the result.
+ */
+class QueryPlan {
+    private static final int BATCH = 1024;
+
+    private final IpTable ips;
+    private final SymbolTable users;
+    private final String query;
+    private final List<String> tokens = new ArrayList<>();
+    private int position;
+
+    private Aggregate aggregate;
+    private Field select;
+    private List<List<Predicate>> condition;
+    private boolean all = true;
+    private long from = 0;
+    private long to = Long.MAX_VALUE;
+    private Field groupBy;
+    private int order;
+    private int limit = -1;
+
+    private QueryPlan(String query, IpTable ips, SymbolTable users) {
+        this.query = query;
+        this.ips = ips;
+        this.users = users;
+        tokenize();
+        parse();
+    }
+
+    /**
+     * Parses {@code query}. Its dictionary lookups go to {@code ips} and
+     * {@code users}, so the plan may only be run against segments sharing
+     * these tables.
+     *
+     * @throws IllegalArgumentException if the query is not valid QL
+     */
+    static QueryPlan compile(String query, IpTable ips, SymbolTable users) {
+        return new QueryPlan(query, ips, users);
+    }
+
+    /**
+     * Runs the plan. {@code get} returns the distinct values; {@code count}
+     * and {@code count distinct} a single Integer; with {@code group by} the
+     * set holds one {@link Map.Entry} per group, mapping the group's value to
+     * its result. Ordered or limited results iterate in order.
+     */
+    Set<Object> execute(List<Segment> segments) {
+        Aggregation aggregation = new Aggregation();
+        for (Segment segment : segments) {
+            int start = all ? 0 : segment.rangeStart(from);
+            int end = all ? segment.size() : segment.rangeEnd(to);
+            if (start >= end) {
+                continue;
+            }
+            LogStore store = segment.store();
+            if (condition == null) {
+                aggregation.addRange(store, start, end);
+            } else {
+                aggregation.addRows(store, evaluate(segment), start, end);
+            }
+        }
+        return aggregation.result();
+    }
+
+    private RowBitmap evaluate(Segment segment) {
+        RowBitmap result = null;
+        for (List<Predicate> term : condition) {
+            RowBitmap rows = null;
+            for (Predicate predicate : term) {
+                rows = rows == null ? predicate.rows(segment) : RowBitmap.and(rows, predicate.rows(segment));
+            }
+            result = result == null ? rows : RowBitmap.or(result, rows);
+        }
+        return result;
+    }
+
+    private void tokenize() {
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int close = query.indexOf('"', i + 1);
+                if (close < 0) {
+                    throw invalid("unterminated value");
+                }
+                tokens.add(query.substring(i, close));
+                i = close + 1;
+            } else if (c == '=') {
+                tokens.add("=");
+                i++;
+            } else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+                        && query.charAt(i) != '"' && query.charAt(i) != '=') {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+    }
+
+    private void parse() {
+        if (accept("get")) {
+            aggregate = Aggregate.GET;
+            select = field();
+        } else if (accept("count")) {
+            aggregate = accept("distinct") ? Aggregate.COUNT_DISTINCT : Aggregate.COUNT;
+            select = aggregate == Aggregate.COUNT ? null : field();
+        } else {
+            throw invalid("expected get or count");
+        }
+        if (accept("for")) {
+            condition = new ArrayList<>();
+            do {
+                List<Predicate> term = new ArrayList<>();
+                do {
+                    term.add(predicate());
+                } while (!isWindow() && accept("and"));
+                condition.add(term);
+            } while (accept("or"));
+            all = false;
+        }
+        if (accept("and")) {
+            expect("date");
+            expect("between");
+            long after = new TimestampParser().parse(value());
+            expect("and");
+            long before = new TimestampParser().parse(value());
+            if (after != TimestampParser.INVALID && before != TimestampParser.INVALID) {
+                from = after;
+                to = before;
+            }
+            all = false;
+        }
+        if (accept("group")) {
+            expect("by");
+            groupBy = field();
+        }
+        if (accept("order")) {
+            expect("by");
+            expect("date");
+            order = accept("desc") ? -1 : 1;
+            if (order > 0) {
+                accept("asc");
+            }
+            if (select == null && groupBy == null) {
+                throw invalid("order by needs a field or a group");
+            }
+        }
+        if (accept("limit")) {
+            try {
+                limit = Integer.parseInt(next());
+            } catch (NumberFormatException e) {
+                throw invalid("limit must be a number");
+            }
+            if (limit < 0) {
+                throw invalid("limit must not be negative");
+            }
+        }
+        if (position < tokens.size()) {
+            throw invalid("unexpected " + tokens.get(position));
+        }
+    }
+
+    private boolean isWindow() {
+        return position + 2 < tokens.size() && tokens.get(position).equals("and")
+                && tokens.get(position + 1).equals("date") && tokens.get(position + 2).equals("between");
+    }
+
+    private Predicate predicate() {
+        Field field = field();
+        expect("=");
+        return new Predicate(field, value());
+    }
+
+    private Field field() {
+        String name = next();
+        for (Field field : Field.values()) {
+            if (field.name().toLowerCase(Locale.ROOT).equals(name)) {
+                return field;
+            }
+        }
+        throw invalid("unknown field " + name);
+    }
+
+    private String value() {
+        String token = next();
+        if (!token.startsWith("\"")) {
+            throw invalid("expected a quoted value instead of " + token);
+        }
+        return token.substring(1);
+    }
+
+    private boolean accept(String keyword) {
+        if (position < tokens.size() && tokens.get(position).equals(keyword)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String keyword) {
+        if (!accept(keyword)) {
+            throw invalid("expected " + keyword);
+        }
+    }
+
+    private String next() {
+        if (position == tokens.size()) {
+            throw invalid("unexpected end");
+        }
+        return tokens.get(position++);
+    }
+
+    private IllegalArgumentException invalid(String reason) {
+        return new IllegalArgumentException("Invalid query, " + reason + ": " + query);
+    }
+
+    private enum Aggregate {
+        GET, COUNT, COUNT_DISTINCT
+    }
+
+    enum Field {
+        IP, USER, DATE, EVENT, STATUS;
+
+        /**
+         * Copies this column of {@code rows[0, n)} into {@code codes}.
+         */
+        void codes(LogStore store, int[] rows, int n, long[] codes) {
+            switch (this) {
+                case IP: {
+                    int[] column = store.ipCodes();
+                    for (int i = 0; i < n; i++) {
+                        codes[i] = column[rows[i]];
+                    }
+                    break;
+                }
+                case USER: {
+                    int[] column = store.userIds();
+                    for (int i = 0; i < n; i++) {
+                        codes[i] = column[rows[i]];
+                    }
+                    break;
+                }
+                case DATE: {
+                    long[] column = store.times();
+                    for (int i = 0; i < n; i++) {
+                        codes[i] = column[rows[i]];
+                    }
+                    break;
+                }
+                case EVENT: {
+                    byte[] column = store.events();
+                    for (int i = 0; i < n; i++) {
+                        codes[i] = column[rows[i]];
+                    }
+                    break;
+                }
+                default: {
+                    byte[] column = store.statuses();
+                    for (int i = 0; i < n; i++) {
+                        codes[i] = column[rows[i]];
+                    }
+                }
+            }
+        }
+
+        Object value(long code, IpTable ips, SymbolTable users) {
+            switch (this) {
+                case IP:
+                    return ips.get((int) code);
+                case USER:
+                    return users.get((int) code);
+                case DATE:
+                    return code == TimestampParser.INVALID ? null : new Date(code);
+                case EVENT:
+                    return code == LogStore.NONE ? null : Event.values()[(int) code];
+                default:
+                    return code == LogStore.NONE ? null : Status.values()[(int) code];
+            }
+        }
+    }
+
+    private final class Predicate {
+        private final Field field;
+        private final String value;
+        private final Event event;
+        private final Status status;
+        private final long time;
+        private volatile long key = IpTable.ABSENT;
+
+        Predicate(Field field, String value) {
+            this.field = field;
+            this.value = value;
+            this.event = field == Field.EVENT ? find(Event.values(), value) : null;
+            this.status = field == Field.STATUS ? find(Status.values(), value) : null;
+            this.time = field == Field.DATE ? new TimestampParser().parse(value) : TimestampParser.INVALID;
+        }
+
+        RowBitmap rows(Segment segment) {
+            switch (field) {
+                case IP:
+                case USER:
+                    if (key == IpTable.ABSENT) {
+                        key = field == Field.USER ? users.find(value) : ips.find(value);
+                    }
+                    if (key == IpTable.ABSENT) {
+                        return new RowBitmap();
+                    }
+                    return field == Field.USER ? segment.index().user((int) key) : segment.index().ip((int) key);
+                case EVENT:
+                    return event == null ? new RowBitmap() : segment.index().event(event);
+                case STATUS:
+                    return status == null ? new RowBitmap() : segment.index().status(status);
+                default:
+                    if (time == TimestampParser.INVALID) {
+                        return new RowBitmap();
+                    }
+                    return RowBitmap.range(segment.rangeStart(time - 1), segment.rangeEnd(time + 1));
+            }
+        }
+    }
+
+    private static <E extends Enum<E>> E find(E[] values, String name) {
+        for (E value : values) {
+            if (value.name().equals(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * State of one execution. Selected values and groups get dense ids;
+     * counts and first (or last) dates are kept in arrays indexed by them.
+     */
+    private final class Aggregation {
+        private final int[] rows = new int[BATCH];
+        private final long[] codes = new long[BATCH];
+        private final int[] valueIds = new int[BATCH];
+        private final int[] groupIds = new int[BATCH];
+        private final LongIds values = new LongIds();
+        private final LongIds groups = new LongIds();
+        private final LongIds pairs = new LongIds();
+        private int[] counts = new int[16];
+        private long[] dates = new long[16];
+        private int dated;
+        private long count;
+        private int n;
+
+        void addRange(LogStore store, int start, int end) {
+            if (aggregate == Aggregate.COUNT && groupBy == null) {
+                count += end - start;
+                return;
+            }
+            for (int row = start; row < end; row += BATCH) {
+                int size = Math.min(BATCH, end - row);
+                for (int i = 0; i < size; i++) {
+                    rows[i] = row + i;
+                }
+                batch(store, size);
+            }
+        }
+
+        void addRows(LogStore store, RowBitmap bitmap, int start, int end) {
+            bitmap.forEach(start, end, row -> {
+                rows[n++] = row;
+                if (n == BATCH) {
+                    batch(store, n);
+                    n = 0;
+                }
+            });
+            if (n > 0) {
+                batch(store, n);
+                n = 0;
+            }
+        }
+
+        private void batch(LogStore store, int size) {
+            if (select != null) {
+                select.codes(store, rows, size, codes);
+                for (int i = 0; i < size; i++) {
+                    valueIds[i] = values.add(codes[i]);
+                }
+            }
+            int[] keys = valueIds;
+            int keyCount = values.size();
+            if (groupBy != null) {
+                groupBy.codes(store, rows, size, codes);
+                for (int i = 0; i < size; i++) {
+                    groupIds[i] = groups.add(codes[i]);
+                }
+                keys = groupIds;
+                keyCount = groups.size();
+            }
+            if (keyCount > counts.length) {
+                int capacity = Math.max(keyCount, counts.length * 2);
+                counts = Arrays.copyOf(counts, capacity);
+                dates = Arrays.copyOf(dates, capacity);
+            }
+            if (order != 0) {
+                for (; dated < keyCount; dated++) {
+                    dates[dated] = order > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+                }
+                long[] times = store.times();
+                for (int i = 0; i < size; i++) {
+                    long time = times[rows[i]];
+                    int key = keys[i];
+                    if (order > 0 ? time < dates[key] : time > dates[key]) {
+                        dates[key] = time;
+                    }
+                }
+            }
+            if (groupBy == null) {
+                if (aggregate == Aggregate.COUNT) {
+                    count += size;
+                }
+                return;
+            }
+            if (aggregate == Aggregate.COUNT) {
+                for (int i = 0; i < size; i++) {
+                    counts[groupIds[i]]++;
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                int before = pairs.size();
+                pairs.add((long) groupIds[i] << 32 | valueIds[i]);
+                if (pairs.size() > before) {
+                    counts[groupIds[i]]++;
+                }
+            }
+        }
+
+        Set<Object> result() {
+            Set<Object> set = order != 0 || limit >= 0 ? new LinkedHashSet<>() : new HashSet<>();
+            if (groupBy == null) {
+                if (aggregate == Aggregate.COUNT) {
+                    set.add((int) count);
+                } else if (aggregate == Aggregate.COUNT_DISTINCT) {
+                    set.add(values.size());
+                } else {
+                    for (int id : ordered(values.size())) {
+                        set.add(select.value(values.key(id), ips, users));
+                    }
+                }
+                return set;
+            }
+            int[] selected = ordered(groups.size());
+            if (aggregate != Aggregate.GET) {
+                for (int group : selected) {
+                    set.add(new AbstractMap.SimpleImmutableEntry<>(groupBy.value(groups.key(group), ips, users),
+                            counts[group]));
+                }
+                return set;
+            }
+            Map<Integer, Set<Object>> grouped = new LinkedHashMap<>();
+            for (int group : selected) {
+                grouped.put(group, new HashSet<>());
+            }
+            for (int id = 0; id < pairs.size(); id++) {
+                long pair = pairs.key(id);
+                Set<Object> groupValues = grouped.get((int) (pair >>> 32));
+                if (groupValues != null) {
+                    groupValues.add(select.value(values.key((int) pair), ips, users));
+                }
+            }
+            for (Map.Entry<Integer, Set<Object>> entry : grouped.entrySet()) {
+                set.add(new AbstractMap.SimpleImmutableEntry<>(groupBy.value(groups.key(entry.getKey()), ips, users),
+                        entry.getValue()));
+            }
+            return set;
+        }
+
+        /**
+         * Ids {@code 0 .. size-1} in result order: by date if ordered, then
+         * cut to the limit.
+         */
+        private int[] ordered(int size) {
+            Integer[] ids = new Integer[size];
+            for (int id = 0; id < size; id++) {
+                ids[id] = id;
+            }
+            if (order != 0) {
+                Arrays.sort(ids, (a, b) -> order * Long.compare(dates[a], dates[b]));
+            }
+            int length = limit >= 0 ? Math.min(limit, size) : size;
+            int[] result = new int[length];
+            for (int i = 0; i < length; i++) {
+                result[i] = ids[i];
+            }
+            return result;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+import java.nio.file.Path;
+
+/**
+ * A log line that was dropped or stored incomplete while parsing, kept by
+ * the quarantine of a parser, see {@link LogParserConfig#setQuarantineSize}.
+ */
+public final class RejectedLine {
+    /**
+     * What was wrong with a line. Lines with a bad field count, event or
+     * task are dropped; those with a bad date or status are stored with the
+     * value missing. A line with both a bad date and a bad status is
+     * quarantined once for each.
+     */
+    public enum Reason {
+        /** The line does not have exactly five tab separated fields. */
+        FIELD_COUNT,
+        /** The event field does not name an event. */
+        EVENT,
+        /** A task event without a valid task number. */
+        TASK,
+        /** The date field is not a valid date; the row has no time. */
+        DATE,
+        /** The status field does not name a status; the row has none. */
+        STATUS
+    }
+
+    private final Path file;
+    private final long offset;
+    private final Reason reason;
+    private final String line;
+
+    RejectedLine(Path file, long offset, Reason reason, String line) {
+        this.file = file;
+        this.offset = offset;
+        this.reason = reason;
+        this.line = line;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Byte offset of the line in the file, in inflated bytes for compressed
+     * files. Lines appended to a compressed file while following it are
+     * counted from the first appended member.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * The text of the line, without the line break.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return file + ":" + offset + " " + reason + " " + line;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of query results for {@link LogParser}. Every entry is
+ * tagged with the number of the {@link Epoch} it was computed from and is
+ * only returned for that epoch. When new rows are published, entries whose
+ * window ends at or before the earliest new row are carried over to the new
+ * epoch and all others are dropped; when old rows are dropped, the same
+ * happens to entries whose window starts at or after the latest dropped row.
+ * Once the cache is full the least recently used entry is evicted.
+ */
+class ResultCache {
+    private final Map<Key, Entry> map;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    ResultCache(int capacity) {
+        this.map = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the entry for {@code key} computed from {@code epoch}, or null
+     * on a miss.
+     */
+    synchronized Entry get(Key key, long epoch) {
+        Entry entry = map.get(key);
+        if (entry == null || entry.epoch != epoch) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    synchronized void put(Key key, long epoch, Object value) {
+        map.put(key, new Entry(epoch, value));
+    }
+
+    /**
+     * Moves the entries of epoch {@code from} whose window ends at or before
+     * {@code earliest}, the time of the earliest row published since, to
+     * epoch {@code to}, and drops every other entry.
+     */
+    synchronized void advance(long from, long to, long earliest) {
+        for (Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getValue().epoch == from && entry.getKey().to <= earliest) {
+                entry.getValue().epoch = to;
+            } else {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Moves the entries of epoch {@code from} whose window starts at or after
+     * {@code latest}, the time of the latest row dropped since, to epoch
+     * {@code to}, and drops every other entry.
+     */
+    synchronized void retainAfter(long from, long to, long latest) {
+        for (Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getValue().epoch == from && entry.getKey().from >= latest) {
+                entry.getValue().epoch = to;
+            } else {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(map.size(), hits, misses, evictions, invalidations);
+    }
+
+    static final class Entry {
+        private long epoch;
+        final Object value;
+
+        Entry(long epoch, Object value) {
+            this.epoch = epoch;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A query method, its arguments and its window.
+     */
+    static final class Key {
+        private final String method;
+        private final Object[] arguments;
+        private final long from;
+        private final long to;
+
+        Key(String method, long from, long to, Object... arguments) {
+            this.method = method;
+            this.arguments = arguments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return from == key.from && to == key.to && method.equals(key.method)
+                    && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * method.hashCode() + Arrays.hashCode(arguments)) + Long.hashCode(from))
+                    + Long.hashCode(to);
+        }
+    }
+}
\ No newline at end of file
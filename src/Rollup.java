@@ -0,0 +1,243 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Pre-aggregated counts of a time sorted {@link LogStore}, per time bucket
+ * of a fixed width. Rows are sorted, so every bucket is a run of consecutive
+ * rows; a bucket holds the number of rows per event, status and task, and
+ * the distinct users and IPs of its rows as sorted arrays. Buckets with
+ * more than {@link #MAX_IDS} distinct users or IPs do not keep them; those
+ * are read from the rows of the bucket instead. With a sketch precision,
+ * every bucket also keeps {@link HyperLogLog} sketches of its users and
+ * IPs, so distinct counts merge registers instead of hashing ids; those
+ * of buckets with few ids keep only their non-empty registers.
+ */
+class Rollup {
+    private static final int EVENTS = Event.values().length;
+    private static final int STATUSES = Status.values().length;
+    private static final int MAX_IDS = 1024;
+
+    private final LogStore store;
+    private final long width;
+    private final int[] starts;
+    private final int[] eventCounts;
+    private final int[] statusCounts;
+    private final int[] taskStarts;
+    private final long[] taskKeys;
+    private final int[] taskCounts;
+    private final int[][] users;
+    private final int[][] ips;
+    private final HyperLogLog[] userSketches;
+    private final HyperLogLog[] ipSketches;
+
+    /**
+     * Builds buckets of {@code width} milliseconds over {@code store}, which
+     * must be sorted by time, with sketches of {@code sketchPrecision}, or
+     * none if it is zero.
+     */
+    Rollup(LogStore store, long width, int sketchPrecision) {
+        this.store = store;
+        this.width = width;
+        long[] times = store.times();
+        int size = store.size();
+        int buckets = 0;
+        for (int row = 0; row < size; row++) {
+            if (row == 0 || bucket(times[row]) != bucket(times[row - 1])) {
+                buckets++;
+            }
+        }
+        starts = new int[buckets + 1];
+        eventCounts = new int[buckets * EVENTS];
+        statusCounts = new int[buckets * STATUSES];
+        taskStarts = new int[buckets + 1];
+        users = new int[buckets][];
+        ips = new int[buckets][];
+        userSketches = sketchPrecision > 0 ? new HyperLogLog[buckets] : null;
+        ipSketches = sketchPrecision > 0 ? new HyperLogLog[buckets] : null;
+        long[] keys = new long[16];
+        int[] counts = new int[16];
+        int tasks = 0;
+        int bucket = 0;
+        for (int start = 0; start < size; bucket++) {
+            int end = start + 1;
+            while (end < size && bucket(times[end]) == bucket(times[start])) {
+                end++;
+            }
+            starts[bucket] = start;
+            taskStarts[bucket] = tasks;
+            IntSet bucketUsers = new IntSet();
+            IntSet bucketIps = new IntSet();
+            LongIds bucketTasks = new LongIds();
+            for (int row = start; row < end; row++) {
+                byte event = store.events()[row];
+                if (event != LogStore.NONE) {
+                    eventCounts[bucket * EVENTS + event]++;
+                    int task = store.tasks()[row];
+                    if (task >= 0) {
+                        int id = bucketTasks.add(taskKey(event, task));
+                        if (tasks + id == keys.length) {
+                            keys = Arrays.copyOf(keys, keys.length * 2);
+                            counts = Arrays.copyOf(counts, keys.length);
+                        }
+                        keys[tasks + id] = taskKey(event, task);
+                        counts[tasks + id]++;
+                    }
+                }
+                byte status = store.statuses()[row];
+                if (status != LogStore.NONE) {
+                    statusCounts[bucket * STATUSES + status]++;
+                }
+                bucketUsers.add(store.userIds()[row]);
+                bucketIps.add(store.ipCodes()[row]);
+            }
+            tasks += bucketTasks.size();
+            users[bucket] = capped(bucketUsers);
+            ips[bucket] = capped(bucketIps);
+            if (sketchPrecision > 0) {
+                userSketches[bucket] = sketch(bucketUsers, sketchPrecision);
+                ipSketches[bucket] = sketch(bucketIps, sketchPrecision);
+            }
+            start = end;
+        }
+        starts[buckets] = size;
+        taskStarts[buckets] = tasks;
+        taskKeys = Arrays.copyOf(keys, tasks);
+        taskCounts = Arrays.copyOf(counts, tasks);
+    }
+
+    int buckets() {
+        return starts.length - 1;
+    }
+
+    /**
+     * First row of {@code bucket}.
+     */
+    int start(int bucket) {
+        return starts[bucket];
+    }
+
+    /**
+     * Row after the last row of {@code bucket}.
+     */
+    int end(int bucket) {
+        return starts[bucket + 1];
+    }
+
+    /**
+     * Index of the first bucket starting at or after {@code row}.
+     */
+    int firstBucketFrom(int row) {
+        int index = Arrays.binarySearch(starts, 0, buckets(), row);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Number of leading buckets that end at or before {@code row}.
+     */
+    int bucketsUntil(int row) {
+        int index = Arrays.binarySearch(starts, 1, starts.length, row);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    int eventCount(int bucket, Event event) {
+        return eventCounts[bucket * EVENTS + event.ordinal()];
+    }
+
+    int statusCount(int bucket, Status status) {
+        return statusCounts[bucket * STATUSES + status.ordinal()];
+    }
+
+    /**
+     * Number of rows of {@code bucket} with {@code event} for {@code task}.
+     */
+    int taskCount(int bucket, Event event, int task) {
+        long key = taskKey((byte) event.ordinal(), task);
+        for (int i = taskStarts[bucket]; i < taskStarts[bucket + 1]; i++) {
+            if (taskKeys[i] == key) {
+                return taskCounts[i];
+            }
+        }
+        return 0;
+    }
+
+    void forEachTask(int bucket, Event event, TaskConsumer action) {
+        for (int i = taskStarts[bucket]; i < taskStarts[bucket + 1]; i++) {
+            if (taskKeys[i] >>> 32 == event.ordinal()) {
+                action.accept((int) taskKeys[i], taskCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Hands the user ids of {@code bucket} to {@code action}: distinct and
+     * ascending if the bucket keeps them, else those of its rows in row
+     * order, repeats included.
+     */
+    void forEachUser(int bucket, IntConsumer action) {
+        forEach(users[bucket], store.userIds(), bucket, action);
+    }
+
+    /**
+     * Like {@link #forEachUser}, for the IP codes of {@code bucket}.
+     */
+    void forEachIp(int bucket, IntConsumer action) {
+        forEach(ips[bucket], store.ipCodes(), bucket, action);
+    }
+
+    /**
+     * Sketch of the user ids of {@code bucket}; only with a sketch precision.
+     */
+    HyperLogLog userSketch(int bucket) {
+        return userSketches[bucket];
+    }
+
+    /**
+     * Sketch of the IP codes of {@code bucket}; only with a sketch precision.
+     */
+    HyperLogLog ipSketch(int bucket) {
+        return ipSketches[bucket];
+    }
+
+    private void forEach(int[] ids, int[] column, int bucket, IntConsumer action) {
+        if (ids != null) {
+            for (int id : ids) {
+                action.accept(id);
+            }
+            return;
+        }
+        for (int row = start(bucket); row < end(bucket); row++) {
+            action.accept(column[row]);
+        }
+    }
+
+    private long bucket(long time) {
+        return Math.floorDiv(time, width);
+    }
+
+    private static long taskKey(byte event, int task) {
+        return (long) event << 32 | task;
+    }
+
+    /**
+     * The values of {@code set}, ascending, or null if there are more than
+     * {@link #MAX_IDS}.
+     */
+    private static int[] capped(IntSet set) {
+        if (set.size() > MAX_IDS) {
+            return null;
+        }
+        int[] values = set.toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static HyperLogLog sketch(IntSet set, int precision) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        sketch.addAll(set.toArray());
+        return sketch.compact();
+    }
+
+    interface TaskConsumer {
+        void accept(int task, int count);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,434 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of row numbers in the style of a Roaring bitmap. Rows are
+ * grouped by their upper 16 bits; each group holds its lower 16 bits either
+ * as a sorted array while it has at most {@value #ARRAY_LIMIT} entries, or as
+ * a 65536 bit bitmap once it is denser than that.
+ */
+class RowBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+
+    private char[] keys = new char[1];
+    private Container[] containers = new Container[1];
+    private int size;
+
+    /**
+     * Adds {@code row}, which must be larger than every row added before.
+     */
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        if (size == 0 || keys[size - 1] != key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            keys[size] = key;
+            containers[size] = new ArrayContainer(new char[4], 0);
+            size++;
+        }
+        containers[size - 1] = containers[size - 1].append((char) row);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Releases spare capacity once the bitmap is fully built.
+     */
+    void trim() {
+        keys = Arrays.copyOf(keys, size);
+        containers = Arrays.copyOf(containers, size);
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].trim();
+        }
+    }
+
+    /**
+     * Calls {@code action} for every row in {@code [from, to)} in ascending
+     * order.
+     */
+    void forEach(int from, int to, IntConsumer action) {
+        if (from >= to) {
+            return;
+        }
+        int first = find((char) (from >>> 16));
+        if (first < 0) {
+            first = -first - 1;
+        }
+        for (int i = first; i < size && keys[i] <= (to - 1) >>> 16; i++) {
+            int base = keys[i] << 16;
+            containers[i].forEach(base, from, to, action);
+        }
+    }
+
+    /**
+     * Returns the smallest row in {@code [from, to)}, or -1 if there is none.
+     */
+    int first(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int i = find((char) (from >>> 16));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < size && keys[i] <= (to - 1) >>> 16; i++) {
+            int row = containers[i].first(keys[i] << 16, from);
+            if (row >= 0) {
+                return row < to ? row : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a bitmap of the rows in {@code [from, to)}.
+     */
+    static RowBitmap range(int from, int to) {
+        RowBitmap bitmap = new RowBitmap();
+        for (int row = from; row < to; row++) {
+            bitmap.add(row);
+        }
+        return bitmap;
+    }
+
+    static RowBitmap and(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = a.containers[i].and(b.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(a.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    static RowBitmap or(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || i < a.size && a.keys[i] < b.keys[j]) {
+                result.append(a.keys[i], a.containers[i++]);
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j++]);
+            } else {
+                result.append(a.keys[i], a.containers[i++].or(b.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract Container append(char value);
+
+        abstract Container trim();
+
+        abstract boolean contains(char value);
+
+        abstract void forEach(int base, int from, int to, IntConsumer action);
+
+        /**
+         * Returns the smallest row of this container not below {@code from},
+         * or -1.
+         */
+        abstract int first(int base, int from);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container append(char value) {
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().append(value);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_LIMIT));
+            }
+            values[cardinality++] = value;
+            return this;
+        }
+
+        @Override
+        Container trim() {
+            if (values.length != cardinality) {
+                values = Arrays.copyOf(values, cardinality);
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        void forEach(int base, int from, int to, IntConsumer action) {
+            int i = 0;
+            if (from > base) {
+                i = Arrays.binarySearch(values, 0, cardinality, (char) Math.min(from - base, 0xffff));
+                if (i < 0) {
+                    i = -i - 1;
+                }
+            }
+            for (; i < cardinality; i++) {
+                int row = base | values[i];
+                if (row >= to) {
+                    return;
+                }
+                action.accept(row);
+            }
+        }
+
+        @Override
+        int first(int base, int from) {
+            int i = 0;
+            if (from > base) {
+                i = Arrays.binarySearch(values, 0, cardinality, (char) Math.min(from - base, 0xffff));
+                if (i < 0) {
+                    i = -i - 1;
+                }
+            }
+            for (; i < cardinality; i++) {
+                int row = base | values[i];
+                if (row >= from) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[cardinality + array.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || i < cardinality && values[i] < array.values[j]) {
+                    result[n++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[n++] = array.values[j++];
+                } else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer union = new ArrayContainer(result, n);
+            return n > ARRAY_LIMIT ? union.toBitmap() : union;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        void set(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container append(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container trim() {
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        void forEach(int base, int from, int to, IntConsumer action) {
+            int firstWord = from > base ? Math.min(from - base, 0xffff) >>> 6 : 0;
+            for (int w = firstWord; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    int row = base | w << 6 | Long.numberOfTrailingZeros(word);
+                    if (row >= to) {
+                        return;
+                    }
+                    if (row >= from) {
+                        action.accept(row);
+                    }
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int first(int base, int from) {
+            int low = from > base ? Math.min(from - base, 0xffff) : 0;
+            if (from - base > 0xffff) {
+                return -1;
+            }
+            int w = low >>> 6;
+            long word = words[w] & -1L << low;
+            while (true) {
+                if (word != 0) {
+                    return base | w << 6 | Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                result.words[w] = words[w] & bitmap.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result.cardinality > ARRAY_LIMIT ? result : result.toArray();
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.set(array.values[i]);
+                }
+            } else {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                result.cardinality = 0;
+                for (int w = 0; w < words.length; w++) {
+                    result.words[w] |= bitmap.words[w];
+                    result.cardinality += Long.bitCount(result.words[w]);
+                }
+            }
+            return result;
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Walks the rows of a list of segments inside a time range in time order.
+ * Each segment is sorted, so the cursor keeps one position per segment in a
+ * heap ordered by the time at that position and always steps the earliest
+ * one; rows with equal times come in segment order. A segment enters the
+ * heap with its first time as a lower bound and is only opened when it
+ * reaches the top, so segments loaded on demand stay unloaded until the
+ * walk gets to them. Nothing is read ahead, so a caller that stops early
+ * only pays for the rows it has seen.
+ */
+class RowCursor {
+    private final Segment[] segments;
+    private final Function<LogIndex, RowBitmap> filter;
+    private final RowBitmap[] rows;
+    private final int[] positions;
+    private final int[] ends;
+    private final long[] times;
+    private final boolean[] opened;
+    private final int[] heap;
+    private int heapSize;
+    private int current = -1;
+
+    /**
+     * With a non null {@code filter} only the rows of the bitmap it picks
+     * from each segment's index are visited; a segment's bitmap is built
+     * when the walk reaches the segment.
+     */
+    RowCursor(List<Segment> segments, Function<LogIndex, RowBitmap> filter, long from, long to) {
+        this.segments = segments.toArray(new Segment[0]);
+        this.filter = filter;
+        this.rows = filter == null ? null : new RowBitmap[this.segments.length];
+        this.positions = new int[this.segments.length];
+        this.ends = new int[this.segments.length];
+        this.times = new long[this.segments.length];
+        this.opened = new boolean[this.segments.length];
+        this.heap = new int[this.segments.length];
+        for (int i = 0; i < this.segments.length; i++) {
+            positions[i] = this.segments[i].rangeStart(from);
+            ends[i] = this.segments[i].rangeEnd(to);
+        }
+    }
+
+    /**
+     * Moves to the next row; returns false once all rows have been visited.
+     */
+    boolean next() {
+        if (current == -1) {
+            for (int i = 0; i < segments.length; i++) {
+                if (positions[i] < ends[i]) {
+                    times[i] = segments[i].firstTime();
+                    push(i);
+                }
+            }
+        } else if (current >= 0) {
+            advance(current, positions[current] + 1);
+        }
+        while (heapSize > 0) {
+            int segment = pop();
+            if (opened[segment]) {
+                current = segment;
+                return true;
+            }
+            opened[segment] = true;
+            if (rows != null) {
+                rows[segment] = filter.apply(segments[segment].index());
+            }
+            advance(segment, positions[segment]);
+        }
+        current = -2;
+        return false;
+    }
+
+    LogStore store() {
+        return segments[current].store();
+    }
+
+    int row() {
+        return positions[current];
+    }
+
+    private void advance(int segment, int row) {
+        positions[segment] = seek(segment, row);
+        if (positions[segment] < ends[segment]) {
+            times[segment] = segments[segment].store().times()[positions[segment]];
+            push(segment);
+        }
+    }
+
+    private int seek(int segment, int row) {
+        if (rows == null || row >= ends[segment]) {
+            return row;
+        }
+        int next = rows[segment].first(row, ends[segment]);
+        return next < 0 ? ends[segment] : next;
+    }
+
+    private boolean before(int a, int b) {
+        return times[a] < times[b] || times[a] == times[b] && a < b;
+    }
+
+    private void push(int segment) {
+        int i = heapSize++;
+        while (i > 0 && before(segment, heap[(i - 1) >>> 1])) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = segment;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], last)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+}
\ No newline at end of file
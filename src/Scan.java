@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a query over the rows of a list of segments inside a time range.
+ * Without a pool every segment is scanned in one piece on the calling
+ * thread. With a pool the rows are cut into partitions of about
+ * {@code partitionSize} rows that are scanned concurrently; each partition
+ * fills its own accumulator and the accumulators are merged in partition
+ * order, so the result does not depend on scheduling. With metrics, the
+ * rows in range are counted as scanned and the rows handed to a row
+ * accumulator as matched, for the query running on the calling thread.
+ */
+class Scan {
+    private final ForkJoinPool pool;
+    private final int partitionSize;
+    private final Metrics metrics;
+
+    Scan(ForkJoinPool pool, int partitionSize, Metrics metrics) {
+        this.pool = pool;
+        this.partitionSize = partitionSize;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Feeds every row after {@code from} and before {@code to} to
+     * {@code action}. With a non null {@code rows} only the rows of the
+     * bitmap it picks from each segment's index are visited.
+     */
+    <A> A rows(List<Segment> segments, Function<LogIndex, RowBitmap> rows, long from, long to,
+               Supplier<A> create, RowAccumulator<A> action, BinaryOperator<A> merge) {
+        RowAccumulator<A> counted = counted(action);
+        return run(segments, rows, from, to, false, create, (result, partition) ->
+                partition.segment.forEachRow(partition.rows(), partition.start, partition.end,
+                        (store, row) -> counted.accept(result, store, row)), merge);
+    }
+
+    /**
+     * Like {@link #rows}, but goes through the rollups as described by
+     * {@link Segment#forEachBucket}; the bitmap {@code filter} picks is only
+     * used for the rows at the edges of the buckets. Partitions are cut at
+     * bucket boundaries so that no bucket is split.
+     */
+    <A> A buckets(List<Segment> segments, Function<LogIndex, RowBitmap> filter, long from, long to,
+                  Supplier<A> create, RowAccumulator<A> rows, BucketAccumulator<A> buckets, BinaryOperator<A> merge) {
+        RowAccumulator<A> counted = counted(rows);
+        return run(segments, filter, from, to, true, create, (result, partition) ->
+                partition.segment.forEachBucket(filter == null ? null : partition::rows, partition.start, partition.end,
+                        (store, row) -> counted.accept(result, store, row),
+                        (rollup, bucket) -> buckets.accept(result, rollup, bucket)), merge);
+    }
+
+    /**
+     * Hands every partition to {@code scanner} together with an accumulator
+     * from {@code create}, and merges the accumulators with {@code merge}.
+     */
+    <A> A run(List<Segment> segments, Function<LogIndex, RowBitmap> rows, long from, long to, boolean aligned,
+              Supplier<A> create, PartitionScanner<A> scanner, BinaryOperator<A> merge) {
+        List<Partition> partitions = partition(segments, rows, from, to, aligned);
+        Metrics.QueryCounter counter = metrics == null ? null : metrics.current();
+        if (counter != null) {
+            long scanned = 0;
+            for (Partition partition : partitions) {
+                scanned += partition.end - partition.start;
+            }
+            counter.scanned(scanned);
+        }
+        if (pool == null || partitions.size() <= 1) {
+            A result = create.get();
+            for (Partition partition : partitions) {
+                scanner.scan(result, partition);
+            }
+            return result;
+        }
+        return pool.invoke(new PartitionTask<>(partitions, 0, partitions.size(), create, scanner, merge));
+    }
+
+    private <A> RowAccumulator<A> counted(RowAccumulator<A> action) {
+        Metrics.QueryCounter counter = metrics == null ? null : metrics.current();
+        if (counter == null) {
+            return action;
+        }
+        return (result, store, row) -> {
+            counter.matched();
+            action.accept(result, store, row);
+        };
+    }
+
+    private List<Partition> partition(List<Segment> segments, Function<LogIndex, RowBitmap> rows, long from, long to,
+                                      boolean aligned) {
+        int step = pool == null ? Integer.MAX_VALUE : partitionSize;
+        List<Partition> partitions = new ArrayList<>();
+        for (Segment segment : segments) {
+            int start = segment.rangeStart(from), end = segment.rangeEnd(to);
+            if (start >= end) {
+                continue;
+            }
+            SegmentRows segmentRows = rows == null ? null : new SegmentRows(segment, rows);
+            for (int cut = start; cut < end; ) {
+                int next = end - cut <= step ? end : cut + step;
+                if (aligned && next < end) {
+                    next = Math.min(end, segment.bucketBoundary(next));
+                }
+                partitions.add(new Partition(segment, segmentRows, cut, next));
+                cut = next;
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * A range of consecutive rows of one segment.
+     */
+    static final class Partition {
+        final Segment segment;
+        final int start;
+        final int end;
+        private final SegmentRows rows;
+
+        Partition(Segment segment, SegmentRows rows, int start, int end) {
+            this.segment = segment;
+            this.rows = rows;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * The rows the scan is restricted to, or null for all rows. The
+         * bitmap is computed once per segment and shared by its partitions.
+         */
+        RowBitmap rows() {
+            return rows == null ? null : rows.get();
+        }
+    }
+
+    private static final class SegmentRows {
+        private final Segment segment;
+        private Function<LogIndex, RowBitmap> rows;
+        private RowBitmap bitmap;
+
+        SegmentRows(Segment segment, Function<LogIndex, RowBitmap> rows) {
+            this.segment = segment;
+            this.rows = rows;
+        }
+
+        synchronized RowBitmap get() {
+            if (bitmap == null) {
+                bitmap = rows.apply(segment.index());
+                rows = null;
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class PartitionTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Partition> partitions;
+        private final int from;
+        private final int to;
+        private final Supplier<A> create;
+        private final PartitionScanner<A> scanner;
+        private final BinaryOperator<A> merge;
+
+        PartitionTask(List<Partition> partitions, int from, int to, Supplier<A> create, PartitionScanner<A> scanner,
+                      BinaryOperator<A> merge) {
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+            this.create = create;
+            this.scanner = scanner;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from == 1) {
+                A result = create.get();
+                scanner.scan(result, partitions.get(from));
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            PartitionTask<A> left = new PartitionTask<>(partitions, from, middle, create, scanner, merge);
+            left.fork();
+            A right = new PartitionTask<>(partitions, middle, to, create, scanner, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+
+    interface RowAccumulator<A> {
+        void accept(A result, LogStore store, int row);
+    }
+
+    interface BucketAccumulator<A> {
+        void accept(A result, Rollup rollup, int bucket);
+    }
+
+    interface PartitionScanner<A> {
+        void scan(A result, Partition partition);
+    }
+}
\ No newline at end of file
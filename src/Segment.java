@@ -0,0 +1,206 @@
+import java.util.function.Supplier;
+
+/**
+ * An immutable, time sorted block of rows together with its bitmap indexes
+ * and rollups. Segments share the parser's IP and user tables, so ids can be
+ * compared across segments.
+ */
+class Segment {
+    private final LogStore store;
+    private final LogIndex index;
+    private final long[] bucketWidths;
+    private final int sketchPrecision;
+    private final Rollup[] rollups;
+
+    /**
+     * Takes ownership of {@code store}; it must not be modified afterwards.
+     * A rollup is built for each of {@code bucketWidths}, which are in
+     * milliseconds and ordered from the widest to the narrowest, with
+     * distinct count sketches of {@code sketchPrecision} (zero for none).
+     */
+    Segment(LogStore store, long[] bucketWidths, int sketchPrecision) {
+        store.sortByTime();
+        store.trimToSize();
+        this.store = store;
+        this.index = new LogIndex(store);
+        this.bucketWidths = bucketWidths;
+        this.sketchPrecision = sketchPrecision;
+        this.rollups = new Rollup[bucketWidths.length];
+        for (int level = 0; level < bucketWidths.length; level++) {
+            rollups[level] = new Rollup(store, bucketWidths[level], sketchPrecision);
+        }
+    }
+
+    /**
+     * For subclasses that load their rows on demand by overriding
+     * {@link #store()}, {@link #index()}, {@link #size()}, the first and
+     * last time and the summaries. They have no rollups.
+     */
+    Segment() {
+        this.store = null;
+        this.index = null;
+        this.bucketWidths = new long[0];
+        this.sketchPrecision = 0;
+        this.rollups = new Rollup[0];
+    }
+
+    LogStore store() {
+        return store;
+    }
+
+    LogIndex index() {
+        return index;
+    }
+
+    int size() {
+        return store.size();
+    }
+
+    /**
+     * Time of the first row; segments are never empty.
+     */
+    long firstTime() {
+        return store.times()[0];
+    }
+
+    /**
+     * Time of the last row.
+     */
+    long lastTime() {
+        return store.times()[store.size() - 1];
+    }
+
+    /**
+     * False if no row of the segment belongs to {@code userId}. Lets queries
+     * for one user skip a segment without scanning it.
+     */
+    boolean mayContainUser(int userId) {
+        return !index.user(userId).isEmpty();
+    }
+
+    /**
+     * False if no row of the segment comes from {@code ipCode}.
+     */
+    boolean mayContainIp(int ipCode) {
+        return !index.ip(ipCode).isEmpty();
+    }
+
+    /**
+     * Index of the first row whose time is after {@code after}. Answered
+     * from the first and last time when {@code after} lies outside the
+     * segment, so segments outside a date range are skipped without
+     * touching their rows.
+     */
+    int rangeStart(long after) {
+        if (after < firstTime()) {
+            return 0;
+        }
+        return after >= lastTime() ? size() : store().rangeStart(after);
+    }
+
+    /**
+     * Index of the first row whose time is not before {@code before}.
+     */
+    int rangeEnd(long before) {
+        if (before <= firstTime()) {
+            return 0;
+        }
+        return before > lastTime() ? size() : store().rangeEnd(before);
+    }
+
+    /**
+     * True for segments kept in a memory mapped file; they are never merged.
+     */
+    boolean isMapped() {
+        return false;
+    }
+
+    /**
+     * Bytes taken by the rows: the columns on the heap, or the compressed
+     * block in the file for mapped segments.
+     */
+    long bytes() {
+        return store.columnBytes();
+    }
+
+    /**
+     * Calls {@code action} for the rows from {@code start} to {@code end}.
+     * With a non null {@code rows} only the rows of that bitmap are visited.
+     */
+    void forEachRow(RowBitmap rows, int start, int end, RowConsumer action) {
+        if (start >= end) {
+            return;
+        }
+        LogStore store = store();
+        if (rows != null) {
+            rows.forEach(start, end, row -> action.accept(store, row));
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            action.accept(store, i);
+        }
+    }
+
+    /**
+     * Visits the rows from {@code start} to {@code end} through the
+     * rollups: {@code buckets} gets every bucket that lies completely inside
+     * the range, widest rollup first, and {@code rows} the remaining rows at
+     * the edges. With a non null {@code filter}, only edge rows of the
+     * bitmap it supplies are visited; it is only asked for if there are edge
+     * rows. Buckets are never filtered.
+     */
+    void forEachBucket(Supplier<RowBitmap> filter, int start, int end, RowConsumer rows, BucketConsumer buckets) {
+        visit(0, start, end, filter, rows, buckets);
+    }
+
+    /**
+     * First row at or after {@code row} that starts a bucket of the widest
+     * rollup, or {@code row} itself without rollups. Cutting a range there
+     * keeps its buckets whole.
+     */
+    int bucketBoundary(int row) {
+        if (rollups.length == 0 || row >= size()) {
+            return row;
+        }
+        Rollup rollup = rollups[0];
+        int bucket = rollup.firstBucketFrom(row);
+        return bucket < rollup.buckets() ? rollup.start(bucket) : size();
+    }
+
+    private void visit(int level, int start, int end, Supplier<RowBitmap> filter, RowConsumer rows,
+                       BucketConsumer buckets) {
+        if (start >= end) {
+            return;
+        }
+        if (level == rollups.length) {
+            forEachRow(filter == null ? null : filter.get(), start, end, rows);
+            return;
+        }
+        Rollup rollup = rollups[level];
+        int first = rollup.firstBucketFrom(start), last = rollup.bucketsUntil(end);
+        if (first >= last) {
+            visit(level + 1, start, end, filter, rows, buckets);
+            return;
+        }
+        visit(level + 1, start, rollup.start(first), filter, rows, buckets);
+        for (int bucket = first; bucket < last; bucket++) {
+            buckets.accept(rollup, bucket);
+        }
+        visit(level + 1, rollup.end(last - 1), end, filter, rows, buckets);
+    }
+
+    static Segment merge(Segment first, Segment second) {
+        LogStore merged = new LogStore(first.store().ips(), first.store().users());
+        merged.addAll(first.store());
+        merged.addAll(second.store());
+        return new Segment(merged, first.bucketWidths, first.sketchPrecision);
+    }
+
+    interface RowConsumer {
+        void accept(LogStore store, int row);
+    }
+
+    interface BucketConsumer {
+        void accept(Rollup rollup, int bucket);
+    }
+}
\ No newline at end of file
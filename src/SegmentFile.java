@@ -0,0 +1,487 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed, memory mapped copy of a {@link Segment}, used to keep more
+ * rows than fit on the heap. The rows are cut into blocks of
+ * {@value #BLOCK_ROWS} and every block is encoded on its own:
+ *
+ * <ul>
+ * <li>times as a varint start followed by varint deltas, which are small
+ * because the rows are sorted;</li>
+ * <li>event and status ordinals bit-packed into five bits per row;</li>
+ * <li>users and IPs as a sorted dictionary of the block's distinct ids
+ * followed by bit-packed positions in it;</li>
+ * <li>task numbers as varints.</li>
+ * </ul>
+ *
+ * A directory at the end of the file holds each block's offset, row count,
+ * first and last time, and Bloom filters of its users and IPs. Each block
+ * is exposed as a small segment of its own: time ranges and user or IP
+ * lookups are answered from the directory, and the block is only decoded
+ * when a query needs its rows. Decoded blocks are kept in a cache shared
+ * by all spill files of a parser, which bounds how many of them exist at
+ * once. The file is mapped in windows of whole blocks, as one mapping can
+ * not exceed 2 GB. Ids refer to the parser's IP and user tables, so the
+ * file is only readable by the process that wrote it.
+ */
+class SegmentFile {
+    static final int BLOCK_ROWS = 4096;
+    private static final int MAGIC = 0x4c505347;
+    private static final long MAX_WINDOW = 1L << 30;
+
+    private SegmentFile() {
+    }
+
+    /**
+     * Writes {@code segment} to a new file in {@code directory}, maps it and
+     * returns its blocks in time order, which keep their decoded rows in
+     * {@code cache}. The file is unlinked once mapped where the platform
+     * allows it, and deleted on exit otherwise.
+     */
+    static List<Segment> spill(Segment segment, Path directory, LruCache<Block, Decoded> cache) throws IOException {
+        Path file = Files.createTempFile(directory, "segment", ".bin");
+        LogStore store = segment.store();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Output directoryOut = new Output();
+            Output block = new Output();
+            long offset = 0;
+            for (int start = 0; start < store.size(); start += BLOCK_ROWS) {
+                int end = Math.min(store.size(), start + BLOCK_ROWS);
+                block.clear();
+                encode(store, start, end, block);
+                directoryOut.writeLong(offset);
+                directoryOut.writeInt(end - start);
+                directoryOut.writeLong(store.times()[start]);
+                directoryOut.writeLong(store.times()[end - 1]);
+                directoryOut.writeWords(Bloom.of(distinct(store.userIds(), start, end)));
+                directoryOut.writeWords(Bloom.of(distinct(store.ipCodes(), start, end)));
+                offset += block.writeTo(channel);
+            }
+            directoryOut.writeLong(offset);
+            directoryOut.writeInt((store.size() + BLOCK_ROWS - 1) / BLOCK_ROWS);
+            directoryOut.writeInt(MAGIC);
+            directoryOut.writeTo(channel);
+        }
+        List<Segment> blocks;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            blocks = blocks(channel, store.ips(), store.users(), cache);
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+        return blocks;
+    }
+
+    /**
+     * Maps the blocks of {@code channel}, starting a new window whenever the
+     * next block would take the current one past {@link #MAX_WINDOW}.
+     */
+    private static List<Segment> blocks(FileChannel channel, IpTable ips, SymbolTable users,
+                                        LruCache<Block, Decoded> cache) throws IOException {
+        long size = channel.size();
+        ByteBuffer footer = size < 16 ? null : channel.map(FileChannel.MapMode.READ_ONLY, size - 16, 16);
+        if (footer == null || footer.getInt(12) != MAGIC) {
+            throw new IOException("Not a segment file");
+        }
+        long directoryOffset = footer.getLong(0);
+        int count = footer.getInt(8);
+        ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+                size - 16 - directoryOffset);
+        long[] offsets = new long[count + 1];
+        int[] rows = new int[count];
+        long[] firstTimes = new long[count];
+        long[] lastTimes = new long[count];
+        long[][] userFilters = new long[count][];
+        long[][] ipFilters = new long[count][];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = directory.getLong();
+            rows[i] = directory.getInt();
+            firstTimes[i] = directory.getLong();
+            lastTimes[i] = directory.getLong();
+            userFilters[i] = readWords(directory);
+            ipFilters[i] = readWords(directory);
+        }
+        offsets[count] = directoryOffset;
+        List<Segment> blocks = new ArrayList<>(count);
+        MappedByteBuffer window = null;
+        long windowStart = 0;
+        for (int i = 0; i < count; i++) {
+            if (window == null || offsets[i + 1] - windowStart > MAX_WINDOW) {
+                windowStart = offsets[i];
+                int last = i + 1;
+                while (last < count && offsets[last + 1] - windowStart <= MAX_WINDOW) {
+                    last++;
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, offsets[last] - windowStart);
+            }
+            blocks.add(new Block(window, (int) (offsets[i] - windowStart),
+                    (int) (offsets[i + 1] - offsets[i]), rows[i], firstTimes[i], lastTimes[i],
+                    userFilters[i], ipFilters[i], ips, users, cache));
+        }
+        return blocks;
+    }
+
+    private static void encode(LogStore store, int start, int end, Output out) {
+        long previous = store.times()[start];
+        out.writeVarLong(zigzag(previous));
+        for (int row = start + 1; row < end; row++) {
+            out.writeVarLong(store.times()[row] - previous);
+            previous = store.times()[row];
+        }
+        long[] flags = new long[end - start];
+        for (int row = start; row < end; row++) {
+            flags[row - start] = (store.events()[row] + 1) | (store.statuses()[row] + 1) << 3;
+        }
+        out.writePacked(flags, 5);
+        writeDictionary(store.userIds(), start, end, out);
+        writeDictionary(store.ipCodes(), start, end, out);
+        for (int row = start; row < end; row++) {
+            out.writeVarLong(store.tasks()[row] + 1L);
+        }
+    }
+
+    private static int[] distinct(int[] column, int start, int end) {
+        return Arrays.stream(column, start, end).distinct().sorted().toArray();
+    }
+
+    private static long[] readWords(ByteBuffer buffer) {
+        long[] words = new long[buffer.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return words;
+    }
+
+    private static void writeDictionary(int[] column, int start, int end, Output out) {
+        int[] values = distinct(column, start, end);
+        out.writeVarLong(values.length);
+        long previous = 0;
+        for (int value : values) {
+            out.writeVarLong(zigzag(value - previous));
+            previous = value;
+        }
+        long[] positions = new long[end - start];
+        for (int row = start; row < end; row++) {
+            positions[row - start] = Arrays.binarySearch(values, column[row]);
+        }
+        out.writePacked(positions, bits(values.length - 1));
+    }
+
+    private static int[] readDictionary(Input in, int rows) {
+        int[] values = new int[(int) in.readVarLong()];
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            previous += unzigzag(in.readVarLong());
+            values[i] = (int) previous;
+        }
+        long[] positions = in.readPacked(rows, bits(values.length - 1));
+        int[] column = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            column[row] = values[(int) positions[row]];
+        }
+        return column;
+    }
+
+    private static int bits(int max) {
+        return max <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(max);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * One block of a mapped file.
+     */
+    static final class Block extends Segment {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private final int rows;
+        private final long firstTime;
+        private final long lastTime;
+        private final long[] userFilter;
+        private final long[] ipFilter;
+        private final IpTable ips;
+        private final SymbolTable users;
+        private final LruCache<Block, Decoded> cache;
+
+        Block(ByteBuffer buffer, int offset, int length, int rows, long firstTime, long lastTime, long[] userFilter,
+              long[] ipFilter, IpTable ips, SymbolTable users, LruCache<Block, Decoded> cache) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.userFilter = userFilter;
+            this.ipFilter = ipFilter;
+            this.ips = ips;
+            this.users = users;
+            this.cache = cache;
+        }
+
+        @Override
+        LogStore store() {
+            return decoded().store;
+        }
+
+        @Override
+        LogIndex index() {
+            return decoded().index();
+        }
+
+        @Override
+        int size() {
+            return rows;
+        }
+
+        @Override
+        long firstTime() {
+            return firstTime;
+        }
+
+        @Override
+        long lastTime() {
+            return lastTime;
+        }
+
+        @Override
+        boolean mayContainUser(int userId) {
+            return Bloom.mayContain(userFilter, userId);
+        }
+
+        @Override
+        boolean mayContainIp(int ipCode) {
+            return Bloom.mayContain(ipFilter, ipCode);
+        }
+
+        @Override
+        boolean isMapped() {
+            return true;
+        }
+
+        @Override
+        long bytes() {
+            return length;
+        }
+
+        private Decoded decoded() {
+            return cache.computeIfAbsent(this, block -> new Decoded(decode()));
+        }
+
+        private LogStore decode() {
+            Input in = new Input(buffer.duplicate(), offset);
+            long[] times = new long[rows];
+            times[0] = unzigzag(in.readVarLong());
+            for (int row = 1; row < rows; row++) {
+                times[row] = times[row - 1] + in.readVarLong();
+            }
+            long[] flags = in.readPacked(rows, 5);
+            byte[] events = new byte[rows];
+            byte[] statuses = new byte[rows];
+            for (int row = 0; row < rows; row++) {
+                events[row] = (byte) ((flags[row] & 7) - 1);
+                statuses[row] = (byte) ((flags[row] >>> 3) - 1);
+            }
+            int[] userIds = readDictionary(in, rows);
+            int[] ipCodes = readDictionary(in, rows);
+            int[] tasks = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                tasks[row] = (int) (in.readVarLong() - 1);
+            }
+            return new LogStore(ips, users, times, events, statuses, tasks, ipCodes, userIds);
+        }
+    }
+
+    /**
+     * A decoded block; its index is only built when a query asks for it.
+     */
+    static final class Decoded {
+        private final LogStore store;
+        private LogIndex index;
+
+        Decoded(LogStore store) {
+            this.store = store;
+        }
+
+        synchronized LogIndex index() {
+            if (index == null) {
+                index = new LogIndex(store);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Bloom filter of a block's distinct values with about ten bits per
+     * value and three probes, which gives around two percent false
+     * positives.
+     */
+    private static final class Bloom {
+        private static final int PROBES = 3;
+
+        private Bloom() {
+        }
+
+        static long[] of(int[] values) {
+            int bits = Integer.highestOneBit(Math.max(64, values.length * 10 - 1)) << 1;
+            long[] words = new long[bits / 64];
+            for (int value : values) {
+                long hash = mix(value);
+                for (int probe = 0; probe < PROBES; probe++) {
+                    int bit = (int) (hash >>> (probe * 21)) & (bits - 1);
+                    words[bit >>> 6] |= 1L << bit;
+                }
+            }
+            return words;
+        }
+
+        static boolean mayContain(long[] words, int value) {
+            int bits = words.length * 64;
+            long hash = mix(value);
+            for (int probe = 0; probe < PROBES; probe++) {
+                int bit = (int) (hash >>> (probe * 21)) & (bits - 1);
+                if ((words[bit >>> 6] & 1L << bit) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long mix(int value) {
+            long hash = value * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+            hash *= 0xD6E8FEB86659FD93L;
+            return hash ^ hash >>> 32;
+        }
+    }
+
+    private static final class Output {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write((byte) (value >>> shift));
+            }
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((byte) (value >>> shift));
+            }
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            write((byte) value);
+        }
+
+        void writeWords(long[] words) {
+            writeInt(words.length);
+            for (long word : words) {
+                writeLong(word);
+            }
+        }
+
+        /**
+         * Writes {@code values} with {@code bits} bits each, packed into
+         * longs.
+         */
+        void writePacked(long[] values, int bits) {
+            long word = 0;
+            int used = 0;
+            for (long value : values) {
+                if (used + bits > 64) {
+                    writeLong(word);
+                    word = 0;
+                    used = 0;
+                }
+                word |= value << used;
+                used += bits;
+            }
+            if (used > 0) {
+                writeLong(word);
+            }
+        }
+
+        int writeTo(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return size;
+        }
+
+        private void write(byte value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = value;
+        }
+    }
+
+    private static final class Input {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Input(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        long[] readPacked(int count, int bits) {
+            long[] values = new long[count];
+            if (bits == 0) {
+                return values;
+            }
+            long mask = bits == 64 ? -1L : (1L << bits) - 1;
+            long word = 0;
+            int used = 64;
+            for (int i = 0; i < count; i++) {
+                if (used + bits > 64) {
+                    word = buffer.getLong(position);
+                    position += 8;
+                    used = 0;
+                }
+                values[i] = word >>> used & mask;
+                used += bits;
+            }
+            return values;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,293 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binary image of the parsed log files, kept next to the logs so a restart
+ * does not have to parse them again. The rows of every log file are stored
+ * as a block of their own, together with the size and modification time the
+ * file had when it was parsed. On startup the snapshot is memory mapped,
+ * blocks of unchanged files are copied into the store as they are, and only
+ * new or modified files are parsed. The snapshot is rewritten whenever the
+ * set of files changed.
+ *
+ * <p>Layout, big endian: magic, version, flags, the file table (name, size,
+ * modification time, rows), the user dictionary, the fallback IP dictionary,
+ * then one block per file holding its time, event, status, task, IP and user
+ * columns. Indexes are not stored: building them from the columns is a single
+ * pass and cheaper than reading them back.
+ */
+class Snapshot {
+    static final String FILE_NAME = "logparser.snapshot";
+    private static final int MAGIC = 0x4c505331;
+    private static final int VERSION = 1;
+    private static final int MEMORY_MAPPED = 1;
+    private static final int ROW_BYTES = 8 + 1 + 1 + 4 + 4 + 4;
+    private static final Logger LOGGER = Logger.getLogger(Snapshot.class.getName());
+
+    private final Path file;
+    private final LogReader reader;
+    private final int flags;
+
+    Snapshot(Path file, LogReader reader, boolean memoryMapped) {
+        this.file = file;
+        this.reader = reader;
+        this.flags = memoryMapped ? MEMORY_MAPPED : 0;
+    }
+
+    /**
+     * Adds the rows of every log file in {@code logDir} to {@code store}, in
+     * file name order, taking them from the snapshot where possible. Returns
+     * the files that could not be parsed, see {@link LogReader#read}; while
+     * there are any the snapshot is not rewritten, so they are parsed again
+     * on the next start.
+     */
+    Map<Path, IOException> read(Path logDir, LogStore store) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        for (Path log : reader.listLogFiles(logDir)) {
+            BasicFileAttributes attributes = Files.readAttributes(log, BasicFileAttributes.class);
+            sources.add(new Source(log, attributes.size(), attributes.lastModifiedTime().toMillis()));
+        }
+        Map<Path, LogStore> blocks;
+        boolean current;
+        try {
+            Image image = load(sources);
+            blocks = image.translate(store);
+            current = image.files == sources.size() && blocks.size() == sources.size();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable snapshot " + file, e);
+            blocks = new HashMap<>();
+            current = false;
+        }
+        List<LogReader.Range> stale = new ArrayList<>();
+        for (Source source : sources) {
+            if (!blocks.containsKey(source.path)) {
+                stale.add(new LogReader.Range(source.path, 0, source.size));
+            }
+        }
+        Map<Path, LogStore> parsed = blocks;
+        Map<Path, IOException> failures = reader.read(stale, (path, part) -> parsed
+                .computeIfAbsent(path, key -> new LogStore(store.ips(), store.users()))
+                .addAll(part));
+        int first = store.size();
+        for (Source source : sources) {
+            LogStore block = blocks.get(source.path);
+            source.rows = block == null ? 0 : block.size();
+            if (block != null) {
+                store.addAll(block);
+            }
+        }
+        if (!current && failures.isEmpty()) {
+            write(sources, store, first);
+        }
+        return failures;
+    }
+
+    private Image load(List<Source> sources) throws IOException {
+        Image image = new Image();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return image;
+        }
+        try (channel) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), Integer.MAX_VALUE));
+            if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != flags) {
+                return image;
+            }
+            Map<String, Source> byName = new HashMap<>();
+            for (Source source : sources) {
+                byName.put(source.path.getFileName().toString(), source);
+            }
+            image.files = header.getInt();
+            List<Source> matched = new ArrayList<>();
+            List<Integer> rows = new ArrayList<>();
+            for (int i = 0; i < image.files; i++) {
+                Source source = byName.get(readString(header));
+                long size = header.getLong();
+                long modified = header.getLong();
+                rows.add(header.getInt());
+                matched.add(source != null && source.size == size && source.modified == modified ? source : null);
+            }
+            image.users = new String[header.getInt()];
+            for (int i = 0; i < image.users.length; i++) {
+                image.users[i] = readString(header);
+            }
+            image.ips = new String[header.getInt()];
+            for (int i = 0; i < image.ips.length; i++) {
+                image.ips[i] = readString(header);
+            }
+            long offset = header.position();
+            for (int i = 0; i < image.files; i++) {
+                long length = (long) rows.get(i) * ROW_BYTES;
+                if (matched.get(i) != null) {
+                    if (offset + length > channel.size()) {
+                        throw new IOException("Truncated snapshot " + file);
+                    }
+                    image.blocks.put(matched.get(i).path, image.readBlock(
+                            channel.map(FileChannel.MapMode.READ_ONLY, offset, length), rows.get(i)));
+                }
+                offset += length;
+            }
+        }
+        return image;
+    }
+
+    private void write(List<Source> sources, LogStore store, int first) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(flags);
+        header.writeInt(sources.size());
+        for (Source source : sources) {
+            writeString(header, source.path.getFileName().toString());
+            header.writeLong(source.size);
+            header.writeLong(source.modified);
+            header.writeInt(source.rows);
+        }
+        header.writeInt(store.users().size());
+        for (int id = 0; id < store.users().size(); id++) {
+            writeString(header, store.users().get(id));
+        }
+        header.writeInt(store.ips().fallbackSize());
+        for (int id = 0; id < store.ips().fallbackSize(); id++) {
+            writeString(header, store.ips().fallbackValue(id));
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            bytes.writeTo(out);
+            int from = first;
+            for (Source source : sources) {
+                writeBlock(out, store, from, from + source.rows);
+                from += source.rows;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeBlock(DataOutputStream out, LogStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            out.writeLong(store.times()[i]);
+        }
+        out.write(store.events(), from, to - from);
+        out.write(store.statuses(), from, to - from);
+        for (int i = from; i < to; i++) {
+            out.writeInt(store.tasks()[i]);
+        }
+        for (int i = from; i < to; i++) {
+            out.writeInt(store.ipCodes()[i]);
+        }
+        for (int i = from; i < to; i++) {
+            out.writeInt(store.userIds()[i]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Source {
+        private final Path path;
+        private final long size;
+        private final long modified;
+        private int rows;
+
+        Source(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * The usable part of a snapshot: blocks of unchanged files, still
+     * referring to the dictionaries they were written with.
+     */
+    private static class Image {
+        private int files;
+        private String[] users = new String[0];
+        private String[] ips = new String[0];
+        private final Map<Path, LogStore> blocks = new LinkedHashMap<>();
+
+        private LogStore readBlock(ByteBuffer buffer, int rows) throws IOException {
+            long[] times = new long[rows];
+            buffer.asLongBuffer().get(times);
+            buffer.position(rows * 8);
+            byte[] events = new byte[rows];
+            buffer.get(events);
+            byte[] statuses = new byte[rows];
+            buffer.get(statuses);
+            int[] tasks = new int[rows];
+            int[] ipCodes = new int[rows];
+            int[] userIds = new int[rows];
+            buffer.slice().asIntBuffer().get(tasks).get(ipCodes).get(userIds);
+            for (int i = 0; i < rows; i++) {
+                if (events[i] < LogStore.NONE || events[i] >= Event.values().length
+                        || statuses[i] < LogStore.NONE || statuses[i] >= Status.values().length
+                        || !IpTable.isPacked(ipCodes[i]) && ipCodes[i] >= ips.length
+                        || userIds[i] < 0 || userIds[i] >= users.length) {
+                    throw new IOException("Corrupt snapshot row " + i);
+                }
+            }
+            return new LogStore(null, null, times, events, statuses, tasks, ipCodes, userIds);
+        }
+
+        /**
+         * Rewrites the user ids and fallback IP codes of every block into
+         * those of {@code store}, interning only the values still in use.
+         */
+        private Map<Path, LogStore> translate(LogStore store) {
+            int[] ipMapping = new int[ips.length];
+            int[] userMapping = new int[users.length];
+            Arrays.fill(ipMapping, -1);
+            Arrays.fill(userMapping, -1);
+            Map<Path, LogStore> translated = new HashMap<>();
+            for (Map.Entry<Path, LogStore> entry : blocks.entrySet()) {
+                LogStore block = entry.getValue();
+                int[] ipCodes = block.ipCodes();
+                int[] userIds = block.userIds();
+                for (int i = 0; i < block.size(); i++) {
+                    int code = ipCodes[i];
+                    if (!IpTable.isPacked(code)) {
+                        if (ipMapping[code] < 0) {
+                            ipMapping[code] = store.ips().intern(ips[code]);
+                        }
+                        ipCodes[i] = ipMapping[code];
+                    }
+                    if (userMapping[userIds[i]] < 0) {
+                        userMapping[userIds[i]] = store.users().intern(users[userIds[i]]);
+                    }
+                    userIds[i] = userMapping[userIds[i]];
+                }
+                translated.put(entry.getKey(), new LogStore(store.ips(), store.users(), block.times(),
+                        block.events(), block.statuses(), block.tasks(), ipCodes, userIds));
+            }
+            return translated;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,38 @@
+import java.util.Date;
+import java.util.stream.Stream;
+
+/**
+ * Lazy variants of the set returning queries. The rows are read in time
+ * order while the stream is consumed, so {@code limit(n)} and an exists
+ * check such as {@code findFirst().isPresent()} stop the scan as soon as
+ * they have their answer. Values are distinct and come in the order of
+ * their first occurrence; dates are ascending. A stream sees the logs as
+ * they were when it was created.
+ */
+public interface StreamQuery {
+    Stream<String> streamIPs(Date after, Date before);
+
+    Stream<String> streamIPsForUser(String user, Date after, Date before);
+
+    Stream<String> streamIPsForEvent(Event event, Date after, Date before);
+
+    Stream<String> streamIPsForStatus(Status status, Date after, Date before);
+
+    Stream<String> streamUsers(Date after, Date before);
+
+    Stream<String> streamUsersForIP(String ip, Date after, Date before);
+
+    Stream<String> streamUsersForEvent(Event event, Date after, Date before);
+
+    Stream<Date> streamDatesForUserAndEvent(String user, Event event, Date after, Date before);
+
+    Stream<Date> streamDatesForStatus(Status status, Date after, Date before);
+
+    Stream<Event> streamEvents(Date after, Date before);
+
+    Stream<Event> streamEventsForIP(String ip, Date after, Date before);
+
+    Stream<Event> streamEventsForUser(String user, Date after, Date before);
+
+    Stream<Event> streamEventsForStatus(Status status, Date after, Date before);
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to byte strings such as users and IPs. A value seen
+ * before is found by hashing and comparing its bytes, so repeated values are
+ * resolved without allocating.
+ * <p>
+ * One thread may add values while others call {@link #find} and
+ * {@link #get}: arrays are only ever replaced by grown copies, and a reader
+ * that races with an insert at worst misses the value being added.
+ */
+class SymbolTable {
+    private final Charset charset;
+    private volatile byte[][] keys = new byte[16][];
+    private volatile String[] values = new String[16];
+    private volatile int[] hashes = new int[16];
+    private volatile int[] slots = new int[32];
+    private volatile int size;
+
+    SymbolTable(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Returns the id of the bytes in {@code [from, to)}, adding them if they
+     * are new.
+     */
+    int intern(ByteBuffer buffer, int from, int to) {
+        int hash = hash(buffer, from, to);
+        int[] slots = this.slots;
+        int[] hashes = this.hashes;
+        byte[][] keys = this.keys;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot] - 1) >= 0) {
+            if (hashes[id] == hash && equals(keys[id], buffer, from, to)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] key = new byte[to - from];
+        buffer.get(from, key);
+        return add(slot, key, new String(key, charset), hash);
+    }
+
+    int intern(String value) {
+        byte[] key = value.getBytes(charset);
+        int found = find(key);
+        if (found >= 0) {
+            return found;
+        }
+        int hash = hash(ByteBuffer.wrap(key), 0, key.length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return add(slot, key, value, hash);
+    }
+
+    /**
+     * Returns the id of {@code value}, or -1 if it was never interned.
+     */
+    int find(String value) {
+        return value == null ? -1 : find(value.getBytes(charset));
+    }
+
+    private int find(byte[] key) {
+        ByteBuffer buffer = ByteBuffer.wrap(key);
+        int hash = hash(buffer, 0, key.length);
+        int[] slots = this.slots;
+        int[] hashes = this.hashes;
+        byte[][] keys = this.keys;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot] - 1) >= 0) {
+            if (id < hashes.length && hashes[id] == hash && keys[id] != null && equals(keys[id], buffer, 0, key.length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String get(int id) {
+        return values[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int add(int slot, byte[] key, String value, int hash) {
+        int id = size;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, id * 2);
+            values = Arrays.copyOf(values, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        keys[id] = key;
+        values[id] = value;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        size = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        slots = grown;
+    }
+
+    private static int hash(ByteBuffer buffer, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + buffer.get(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int from, int to) {
+        if (key.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
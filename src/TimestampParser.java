@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parses timestamps in the log format {@code d.M.yyyy H:m:s} into epoch
+ * milliseconds of the default time zone. The zone offset is looked up once
+ * per calendar day and reused while consecutive lines stay on that day, so
+ * the common case does not allocate. Instances keep that cache and must not
+ * be shared between threads.
+ */
+class TimestampParser {
+    static final long INVALID = Long.MIN_VALUE;
+
+    private final ZoneRules rules = ZoneId.systemDefault().getRules();
+    private final int[] fields = new int[6];
+    private int cachedYear = -1;
+    private int cachedMonth;
+    private int cachedDay;
+    private long cachedEpochDay;
+    private int cachedOffset;
+    private boolean cachedFixedOffset;
+
+    long parse(ByteBuffer buffer, int from, int to) {
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            int c = buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return INVALID;
+                }
+                value = value * 10 + c - '0';
+                continue;
+            }
+            if (digits == 0 || field == 5 || c != separator(field)) {
+                return INVALID;
+            }
+            fields[field++] = value;
+            value = 0;
+            digits = 0;
+        }
+        if (digits == 0 || field != 5) {
+            return INVALID;
+        }
+        fields[5] = value;
+        return toMillis();
+    }
+
+    long parse(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return INVALID;
+                }
+                value = value * 10 + c - '0';
+                continue;
+            }
+            if (digits == 0 || field == 5 || c != separator(field)) {
+                return INVALID;
+            }
+            fields[field++] = value;
+            value = 0;
+            digits = 0;
+        }
+        if (digits == 0 || field != 5) {
+            return INVALID;
+        }
+        fields[5] = value;
+        return toMillis();
+    }
+
+    private static char separator(int field) {
+        switch (field) {
+            case 0:
+            case 1:
+                return '.';
+            case 2:
+                return ' ';
+            default:
+                return ':';
+        }
+    }
+
+    private long toMillis() {
+        int day = fields[0];
+        int month = fields[1];
+        int year = fields[2];
+        int hour = fields[3];
+        int minute = fields[4];
+        int second = fields[5];
+        if (hour > 23 || minute > 59 || second > 59) {
+            return INVALID;
+        }
+        if (year != cachedYear || month != cachedMonth || day != cachedDay) {
+            if (!cacheDay(year, month, day)) {
+                return INVALID;
+            }
+        }
+        int secondOfDay = hour * 3600 + minute * 60 + second;
+        int offset = cachedFixedOffset ? cachedOffset : offsetOf(LocalDateTime.of(year, month, day, hour, minute, second));
+        return ((cachedEpochDay * 86400 + secondOfDay) - offset) * 1000;
+    }
+
+    /**
+     * Resolves the offset on days with a zone transition. Ambiguous local
+     * times map to the later instant, as {@code SimpleDateFormat} does.
+     */
+    private int offsetOf(LocalDateTime dateTime) {
+        ZoneOffsetTransition transition = rules.getTransition(dateTime);
+        if (transition != null && transition.isOverlap()) {
+            return transition.getOffsetAfter().getTotalSeconds();
+        }
+        return rules.getOffset(dateTime).getTotalSeconds();
+    }
+
+    private boolean cacheDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            return false;
+        }
+        LocalDate date = LocalDate.of(year, month, 1);
+        if (day > date.lengthOfMonth()) {
+            return false;
+        }
+        date = date.withDayOfMonth(day);
+        int startOffset = rules.getOffset(date.atStartOfDay()).getTotalSeconds();
+        int endOffset = rules.getOffset(date.atTime(23, 59, 59)).getTotalSeconds();
+        cachedYear = year;
+        cachedMonth = month;
+        cachedDay = day;
+        cachedEpochDay = date.toEpochDay();
+        cachedOffset = startOffset;
+        cachedFixedOffset = startOffset == endOffset;
+        return true;
+    }
+}
\ No newline at end of file